@@ -0,0 +1,240 @@
+////////////////////////////////////////////////////////////////////////
+//
+//     Copyright (C) 2018 Applied Visions - http://securedecisions.com
+//
+//     The contents of this file are subject to the Mozilla Public License
+//     Version 2.0 (the "License"); you may not use this file except in
+//     compliance with the License. You may obtain a copy of the License at
+//     http://www.mozilla.org/MPL/
+//
+//     Software distributed under the License is distributed on an "AS IS"
+//     basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+//     License for the specific language governing rights and limitations
+//     under the License.
+//
+//     This material is based on research sponsored by the Department of Homeland
+//     Security (DHS) Science and Technology Directorate, Cyber Security Division
+//     (DHS S&T/CSD) via contract number HHSP233201600058C.
+//
+//     Contributor(s):
+//              Secure Decisions, a division of Applied Visions, Inc
+//
+////////////////////////////////////////////////////////////////////////
+
+package com.denimgroup.threadfix.cli.endpoints;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static com.denimgroup.threadfix.CollectionUtils.map;
+
+//  Matches the request lines of web server access logs (Common/Combined Log Format, ie
+//  '... "GET /app/users/5 HTTP/1.1" 200 ...') against the detected endpoints. Logs are memory-mapped in
+//  chunks which are processed in parallel, one chunk per task. Only a few chunks per thread are mapped at a
+//  time, and each chunk's counts are merged as soon as it is done.
+public class AccessLogCorrelator {
+
+    private static final long CHUNK_SIZE = 64L * 1024 * 1024;
+    //  Extra bytes mapped past the end of each chunk so the last line starting in the chunk can be read
+    static final long LINE_OVERLAP = 64L * 1024;
+    //  Distinct unmatched URLs that are counted, per chunk and in total. Requests for other URLs after the limit
+    //  is reached are only counted in numOtherUnmatchedRequests.
+    static final int MAX_UNMATCHED_URLS = 10000;
+    //  The most requested of them that are listed in the report
+    static final int MAX_REPORTED_UNMATCHED_URLS = 100;
+
+    public static class Result {
+        public final Map<RouteTrie.Route, Long> hitsPerRoute = new IdentityHashMap<>();
+        public final Map<String, Long> unmatchedUrls = map();
+        public long numLines = 0;
+        public long numRequests = 0;
+        public long numMatchedRequests = 0;
+        public long numOtherUnmatchedRequests = 0;
+        //  Lines longer than LINE_OVERLAP that cross the end of a chunk, which are only read up to the end of the
+        //  overlap
+        public long numTruncatedLines = 0;
+    }
+
+    private final RouteTrie routes;
+
+    public AccessLogCorrelator(RouteTrie routes) {
+        this.routes = routes;
+    }
+
+    public Result correlate(File accessLog) throws IOException, InterruptedException {
+        Result result = new Result();
+        for (RouteTrie.Route route : routes.getRoutes()) {
+            result.hitsPerRoute.put(route, 0L);
+        }
+
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        CompletionService<Result> chunkResults = new ExecutorCompletionService<>(executor);
+        int maxChunksInProgress = numThreads * 2;
+
+        try (RandomAccessFile file = new RandomAccessFile(accessLog, "r");
+             FileChannel channel = file.getChannel()) {
+
+            long size = channel.size();
+            int numChunksInProgress = 0;
+            for (long start = 0; start < size; start += CHUNK_SIZE) {
+                if (numChunksInProgress == maxChunksInProgress) {
+                    merge(result, chunkResults.take().get());
+                    numChunksInProgress--;
+                }
+
+                //  Every chunk but the first also maps the byte before it, to tell whether the chunk starts a new line
+                final int offset = start == 0 ? 0 : 1;
+                final long mapStart = start - offset;
+                final int chunkLength = (int)(Math.min(size, start + CHUNK_SIZE) - start);
+                final long mapEnd = Math.min(size, start + chunkLength + LINE_OVERLAP);
+                final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+                final boolean isEndOfFile = mapEnd == size;
+
+                chunkResults.submit(new Callable<Result>() {
+                    @Override
+                    public Result call() {
+                        return processChunk(buffer, offset, chunkLength, isEndOfFile);
+                    }
+                });
+                numChunksInProgress++;
+            }
+
+            for (; numChunksInProgress > 0; numChunksInProgress--) {
+                merge(result, chunkResults.take().get());
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to process access log " + accessLog.getAbsolutePath(), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return result;
+    }
+
+    //  Processes every line that starts within the chunk, which begins at the given offset of the buffer. A line
+    //  that is already in progress at the start of the chunk belongs to the previous chunk and is skipped.
+    private Result processChunk(MappedByteBuffer buffer, int offset, int chunkLength, boolean isEndOfFile) {
+        Result result = new Result();
+        int limit = buffer.limit();
+        int chunkEnd = offset + chunkLength;
+        int pos = 0;
+
+        if (offset > 0) {
+            while (pos < limit && buffer.get(pos) != '\n') {
+                pos++;
+            }
+            pos++;
+        }
+
+        while (pos < chunkEnd && pos < limit) {
+            int lineEnd = pos;
+            while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+
+            result.numLines++;
+            if (lineEnd == limit && !isEndOfFile) {
+                //  The request is at the start of the line, so it is usually still read in full
+                result.numTruncatedLines++;
+            }
+            processLine(buffer, pos, lineEnd, result);
+            pos = lineEnd + 1;
+        }
+
+        return result;
+    }
+
+    private void processLine(MappedByteBuffer buffer, int start, int end, Result result) {
+        //  Find the quoted request line
+        int quote = start;
+        while (quote < end && buffer.get(quote) != '"') {
+            quote++;
+        }
+        if (quote >= end) {
+            return;
+        }
+
+        int methodStart = quote + 1;
+        int methodEnd = methodStart;
+        while (methodEnd < end && buffer.get(methodEnd) != ' ' && buffer.get(methodEnd) != '"') {
+            methodEnd++;
+        }
+        if (methodEnd >= end || buffer.get(methodEnd) != ' ') {
+            return;
+        }
+
+        int urlStart = methodEnd + 1;
+        int urlEnd = urlStart;
+        while (urlEnd < end && buffer.get(urlEnd) != ' ' && buffer.get(urlEnd) != '"') {
+            urlEnd++;
+        }
+        if (urlEnd == urlStart) {
+            return;
+        }
+
+        String httpMethod = readAscii(buffer, methodStart, methodEnd);
+        String url = readAscii(buffer, urlStart, urlEnd);
+        result.numRequests++;
+
+        //  Only routes for the request's method are returned, so a wildcard route still matches when a more
+        //  specific route only exists for other methods
+        List<RouteTrie.Route> matchedRoutes = routes.match(httpMethod, url);
+        for (RouteTrie.Route route : matchedRoutes) {
+            Long hits = result.hitsPerRoute.get(route);
+            result.hitsPerRoute.put(route, hits == null ? 1 : hits + 1);
+        }
+
+        if (!matchedRoutes.isEmpty()) {
+            result.numMatchedRequests++;
+        } else {
+            addUnmatched(result, httpMethod + " " + stripQuery(url), 1);
+        }
+    }
+
+    private static String readAscii(MappedByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private static String stripQuery(String url) {
+        int queryStart = url.indexOf('?');
+        return queryStart < 0 ? url : url.substring(0, queryStart);
+    }
+
+    static void merge(Result target, Result source) {
+        target.numLines += source.numLines;
+        target.numRequests += source.numRequests;
+        target.numMatchedRequests += source.numMatchedRequests;
+
+        for (Map.Entry<RouteTrie.Route, Long> entry : source.hitsPerRoute.entrySet()) {
+            Long hits = target.hitsPerRoute.get(entry.getKey());
+            target.hitsPerRoute.put(entry.getKey(), hits == null ? entry.getValue() : hits + entry.getValue());
+        }
+        target.numOtherUnmatchedRequests += source.numOtherUnmatchedRequests;
+        target.numTruncatedLines += source.numTruncatedLines;
+        for (Map.Entry<String, Long> entry : source.unmatchedUrls.entrySet()) {
+            addUnmatched(target, entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static void addUnmatched(Result result, String unmatched, long numRequests) {
+        Long count = result.unmatchedUrls.get(unmatched);
+        if (count != null) {
+            result.unmatchedUrls.put(unmatched, count + numRequests);
+        } else if (result.unmatchedUrls.size() < MAX_UNMATCHED_URLS) {
+            result.unmatchedUrls.put(unmatched, numRequests);
+        } else {
+            result.numOtherUnmatchedRequests += numRequests;
+        }
+    }
+}
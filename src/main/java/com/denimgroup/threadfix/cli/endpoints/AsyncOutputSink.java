@@ -0,0 +1,154 @@
+////////////////////////////////////////////////////////////////////////
+//
+//     Copyright (C) 2018 Applied Visions - http://securedecisions.com
+//
+//     The contents of this file are subject to the Mozilla Public License
+//     Version 2.0 (the "License"); you may not use this file except in
+//     compliance with the License. You may obtain a copy of the License at
+//     http://www.mozilla.org/MPL/
+//
+//     Software distributed under the License is distributed on an "AS IS"
+//     basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+//     License for the specific language governing rights and limitations
+//     under the License.
+//
+//     This material is based on research sponsored by the Department of Homeland
+//     Security (DHS) Science and Technology Directorate, Cyber Security Division
+//     (DHS S&T/CSD) via contract number HHSP233201600058C.
+//
+//     Contributor(s):
+//              Secure Decisions, a division of Applied Visions, Inc
+//
+////////////////////////////////////////////////////////////////////////
+
+package com.denimgroup.threadfix.cli.endpoints;
+
+import java.io.*;
+
+//  Collects printed lines in a large buffer which a dedicated thread writes out in batches, so that printing
+//  doesn't block on a synchronized, autoflushing System.out for every line. Printing blocks only once the
+//  writer falls far enough behind. Anything still buffered when the JVM exits is written by a shutdown hook.
+public class AsyncOutputSink implements OutputSink {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    //  Printing blocks while this many characters are waiting to be written
+    private static final int MAX_PENDING = 8 * BUFFER_SIZE;
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final Writer writer;
+    private final Thread writerThread;
+    private final Object lock = new Object();
+
+    private StringBuilder pending = new StringBuilder(BUFFER_SIZE);
+    private StringBuilder spare = new StringBuilder(BUFFER_SIZE);
+    private boolean isWriting = false;
+    private boolean isClosed = false;
+
+    public AsyncOutputSink(OutputStream stream) {
+        writer = new BufferedWriter(new OutputStreamWriter(stream), BUFFER_SIZE);
+
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeBatches();
+            }
+        }, "output-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, "output-flush"));
+    }
+
+    @Override
+    public void println(String line) {
+        boolean interrupted = false;
+        synchronized (lock) {
+            while (pending.length() >= MAX_PENDING && !isClosed) {
+                interrupted |= awaitWriter();
+            }
+            if (!isClosed) {
+                pending.append(line).append(LINE_SEPARATOR);
+                lock.notifyAll();
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void flush() {
+        boolean interrupted = false;
+        synchronized (lock) {
+            while ((pending.length() > 0 || isWriting) && writerThread.isAlive()) {
+                interrupted |= awaitWriter();
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (lock) {
+            isClosed = true;
+            lock.notifyAll();
+        }
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeBatches() {
+        while (true) {
+            StringBuilder batch;
+            synchronized (lock) {
+                while (pending.length() == 0 && !isClosed) {
+                    awaitWriter();
+                }
+                if (pending.length() == 0) {
+                    lock.notifyAll();
+                    return;
+                }
+
+                batch = pending;
+                pending = spare;
+                isWriting = true;
+                lock.notifyAll();
+            }
+
+            try {
+                writer.append(batch);
+                writer.flush();
+            } catch (IOException e) {
+                //  Same as System.out, which swallows write errors
+            }
+            batch.setLength(0);
+
+            synchronized (lock) {
+                spare = batch;
+                isWriting = false;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    //  Returns whether the thread was interrupted while waiting. Printing can't be abandoned without losing
+    //  output, so callers keep waiting and restore the flag once they're done.
+    private boolean awaitWriter() {
+        try {
+            lock.wait();
+            return false;
+        } catch (InterruptedException e) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,351 @@
+////////////////////////////////////////////////////////////////////////
+//
+//     Copyright (C) 2018 Applied Visions - http://securedecisions.com
+//
+//     The contents of this file are subject to the Mozilla Public License
+//     Version 2.0 (the "License"); you may not use this file except in
+//     compliance with the License. You may obtain a copy of the License at
+//     http://www.mozilla.org/MPL/
+//
+//     Software distributed under the License is distributed on an "AS IS"
+//     basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+//     License for the specific language governing rights and limitations
+//     under the License.
+//
+//     This material is based on research sponsored by the Department of Homeland
+//     Security (DHS) Science and Technology Directorate, Cyber Security Division
+//     (DHS S&T/CSD) via contract number HHSP233201600058C.
+//
+//     Contributor(s):
+//              Secure Decisions, a division of Applied Visions, Inc
+//
+////////////////////////////////////////////////////////////////////////
+
+
+package com.denimgroup.threadfix.cli.endpoints;
+
+import com.denimgroup.threadfix.data.interfaces.Endpoint;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static com.denimgroup.threadfix.CollectionUtils.list;
+import static com.denimgroup.threadfix.CollectionUtils.map;
+
+//  Holds the Endpoint.Info records of every project in a -json run in a columnar layout, instead of keeping each
+//  project's endpoint graphs until the output is written. Each field of the JSON form of Endpoint.Info is a column
+//  of one value per endpoint:
+//
+//      - strings, ie HTTP methods and file paths, are codes into a dictionary shared by all columns
+//      - ints, ie line numbers, are held as they are
+//      - objects and arrays, ie parameters, are spans of a packed table of (key, value) entries, where each value
+//        is the dictionary code of its JSON text, so parameters that are the same across endpoints are held once
+//      - any other value is the dictionary code of its JSON text
+//
+//  Endpoints are restored to their JSON form one at a time when the output is written, in the order they were added.
+public class ColumnarEndpointStore implements Iterable<ObjectNode> {
+
+    //  Kinds of value in a column
+    private static final byte ABSENT = 0;
+    private static final byte NULL = 1;
+    private static final byte STRING = 2;
+    private static final byte INT = 3;
+    private static final byte JSON = 4;
+    private static final byte OBJECT = 5;
+    private static final byte ARRAY = 6;
+
+    //  Key code of array elements in the entry table
+    private static final int NO_KEY = -1;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final StringDictionary strings = new StringDictionary();
+
+    private final List<Column> columns = list();
+    private final Map<String, Column> columnsByName = map();
+
+    //  Spans of the entry table, one per object or array value
+    private final IntList spanOffsets = new IntList();
+    private final IntList spanLengths = new IntList();
+    private final IntList entryKeys = new IntList();
+    private final IntList entryValues = new IntList();
+
+    private int numEndpoints = 0;
+    private int numProjects = 0;
+
+    public synchronized void add(Endpoint.Info[] infos) {
+        ++numProjects;
+        for (Endpoint.Info info : infos) {
+            add((ObjectNode)mapper.valueToTree(info));
+        }
+    }
+
+    private void add(ObjectNode endpoint) {
+        Iterator<Map.Entry<String, JsonNode>> fields = endpoint.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            Column column = columnsByName.get(field.getKey());
+            if (column == null) {
+                column = new Column(field.getKey(), numEndpoints);
+                columns.add(column);
+                columnsByName.put(field.getKey(), column);
+            }
+            append(column, field.getValue());
+        }
+
+        ++numEndpoints;
+        for (Column column : columns) {
+            if (column.kinds.size < numEndpoints) {
+                column.append(ABSENT, 0);
+            }
+        }
+    }
+
+    private void append(Column column, JsonNode value) {
+        if (value.isNull()) {
+            column.append(NULL, 0);
+        } else if (value.isTextual()) {
+            column.append(STRING, strings.encode(value.textValue()));
+        } else if (value.isInt()) {
+            column.append(INT, value.intValue());
+        } else if (value.isObject() || value.isArray()) {
+            column.append(value.isObject() ? OBJECT : ARRAY, spanOffsets.size);
+            spanOffsets.add(entryKeys.size);
+            spanLengths.add(value.size());
+
+            if (value.isObject()) {
+                Iterator<Map.Entry<String, JsonNode>> entries = value.fields();
+                while (entries.hasNext()) {
+                    Map.Entry<String, JsonNode> entry = entries.next();
+                    entryKeys.add(strings.encode(entry.getKey()));
+                    entryValues.add(strings.encode(toJson(entry.getValue())));
+                }
+            } else {
+                for (JsonNode element : value) {
+                    entryKeys.add(NO_KEY);
+                    entryValues.add(strings.encode(toJson(element)));
+                }
+            }
+        } else {
+            column.append(JSON, strings.encode(toJson(value)));
+        }
+    }
+
+    //  Restores the JSON form of the Endpoint.Info at the given index
+    public synchronized ObjectNode get(int index) {
+        if (index < 0 || index >= numEndpoints) {
+            throw new IndexOutOfBoundsException("Endpoint " + index + " of " + numEndpoints);
+        }
+
+        ObjectNode endpoint = mapper.createObjectNode();
+        for (Column column : columns) {
+            int value = column.values.get(index);
+            switch (column.kinds.get(index)) {
+                case NULL:
+                    endpoint.putNull(column.name);
+                    break;
+                case STRING:
+                    endpoint.put(column.name, strings.decode(value));
+                    break;
+                case INT:
+                    endpoint.put(column.name, value);
+                    break;
+                case JSON:
+                    endpoint.set(column.name, fromJson(strings.decode(value)));
+                    break;
+                case OBJECT:
+                    ObjectNode object = endpoint.putObject(column.name);
+                    for (int i = spanOffsets.get(value), end = i + spanLengths.get(value); i < end; i++) {
+                        object.set(strings.decode(entryKeys.get(i)), fromJson(strings.decode(entryValues.get(i))));
+                    }
+                    break;
+                case ARRAY:
+                    ArrayNode array = endpoint.putArray(column.name);
+                    for (int i = spanOffsets.get(value), end = i + spanLengths.get(value); i < end; i++) {
+                        array.add(fromJson(strings.decode(entryValues.get(i))));
+                    }
+                    break;
+                default:
+                    //  The endpoint didn't have this field
+                    break;
+            }
+        }
+        return endpoint;
+    }
+
+    @Override
+    public Iterator<ObjectNode> iterator() {
+        return new Iterator<ObjectNode>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size();
+            }
+
+            @Override
+            public ObjectNode next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return get(next++);
+            }
+        };
+    }
+
+    //  Writes the same JSON array as serializing the Endpoint.Info records directly, one endpoint at a time
+    public String toJson() throws IOException {
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(writer)) {
+            generator.writeStartArray();
+            for (ObjectNode endpoint : this) {
+                mapper.writeTree(generator, endpoint);
+            }
+            generator.writeEndArray();
+        }
+        return writer.toString();
+    }
+
+    public synchronized int size() {
+        return numEndpoints;
+    }
+
+    public synchronized int getNumProjects() {
+        return numProjects;
+    }
+
+    public synchronized int getNumDistinctStrings() {
+        return strings.size();
+    }
+
+    public synchronized int getNumEntries() {
+        return entryKeys.size;
+    }
+
+    //  Approximate heap used by the store, from the capacity of its arrays and the length of its strings
+    public synchronized long estimateBytes() {
+        long numBytes = strings.estimateBytes();
+        for (Column column : columns) {
+            numBytes += column.kinds.estimateBytes() + column.values.estimateBytes();
+        }
+        numBytes += spanOffsets.estimateBytes() + spanLengths.estimateBytes();
+        numBytes += entryKeys.estimateBytes() + entryValues.estimateBytes();
+        return numBytes;
+    }
+
+    private String toJson(JsonNode value) {
+        try {
+            return mapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private JsonNode fromJson(String json) {
+        try {
+            return mapper.readTree(json);
+        } catch (IOException e) {
+            //  Only text written by toJson is read back
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static class Column {
+        final String name;
+        final ByteList kinds = new ByteList();
+        final IntList values = new IntList();
+
+        //  Columns first seen after some endpoints were added are absent from those endpoints
+        Column(String name, int numPreviousEndpoints) {
+            this.name = name;
+            for (int i = 0; i < numPreviousEndpoints; i++) {
+                append(ABSENT, 0);
+            }
+        }
+
+        void append(byte kind, int value) {
+            kinds.add(kind);
+            values.add(value);
+        }
+    }
+
+    private static class StringDictionary {
+        private final Map<String, Integer> codes = map();
+        private final List<String> values = list();
+        private long numChars = 0;
+
+        int encode(String value) {
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = values.size();
+                codes.put(value, code);
+                values.add(value);
+                numChars += value.length();
+            }
+            return code;
+        }
+
+        String decode(int code) {
+            return values.get(code);
+        }
+
+        int size() {
+            return values.size();
+        }
+
+        //  Each string is held once, plus a hash map entry, a boxed code and a list slot for it
+        long estimateBytes() {
+            return values.size() * (40L + 48L + 16L + 4L) + numChars * 2;
+        }
+    }
+
+    private static class IntList {
+        private int[] values = new int[16];
+        int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[size++] = value;
+        }
+
+        int get(int index) {
+            return values[index];
+        }
+
+        long estimateBytes() {
+            return 16L + 4L * values.length;
+        }
+    }
+
+    private static class ByteList {
+        private byte[] values = new byte[16];
+        int size = 0;
+
+        void add(byte value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[size++] = value;
+        }
+
+        byte get(int index) {
+            return values[index];
+        }
+
+        long estimateBytes() {
+            return 16L + values.length;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+////////////////////////////////////////////////////////////////////////
+//
+//     Copyright (C) 2018 Applied Visions - http://securedecisions.com
+//
+//     The contents of this file are subject to the Mozilla Public License
+//     Version 2.0 (the "License"); you may not use this file except in
+//     compliance with the License. You may obtain a copy of the License at
+//     http://www.mozilla.org/MPL/
+//
+//     Software distributed under the License is distributed on an "AS IS"
+//     basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+//     License for the specific language governing rights and limitations
+//     under the License.
+//
+//     This material is based on research sponsored by the Department of Homeland
+//     Security (DHS) Science and Technology Directorate, Cyber Security Division
+//     (DHS S&T/CSD) via contract number HHSP233201600058C.
+//
+//     Contributor(s):
+//              Secure Decisions, a division of Applied Visions, Inc
+//
+////////////////////////////////////////////////////////////////////////
+
+package com.denimgroup.threadfix.cli.endpoints;
+
+import com.denimgroup.threadfix.data.interfaces.Endpoint;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.regex.Pattern;
+
+import static com.denimgroup.threadfix.CollectionUtils.list;
+
+//  Alternative to the -json array of Endpoint.Info records for runs over many projects, which stores each
+//  distinct endpoint once by its fingerprint and has each project reference the fingerprints of its endpoints:
+//
+//      {
+//          "format": "deduplicated", "version": 1,
+//          "endpoints": { "3f7a...": { "httpMethod": "GET", "urlPath": "/users", ... }, ... },
+//          "projects": { "/src/app-a": [ "3f7a...", ... ], "/src/app-b": [ { "fingerprint": "3f7a...", "urlPath": "/users/" }, ... ] }
+//      }
+//
+//  A project whose endpoint has the same fingerprint as the stored one but a differently written URL references
+//  it with its own URL, so that the endpoints are restored exactly as -json would have written them.
+//  Endpoints are added as each project finishes, so the endpoints shared between projects are only held once.
+public class DeduplicatedOutput {
+
+    static final String FORMAT_NAME = "deduplicated";
+    static final int VERSION = 1;
+
+    //  Path parameters in any of the framework syntaxes, ie {id}, {id:int}, :id and <id>
+    private static final Pattern PATH_PARAMETER_PATTERN = Pattern.compile("\\{[^/}]*}|(?<=/):[^/]+|<[^/>]*>");
+    private static final Pattern REPEATED_SLASHES_PATTERN = Pattern.compile("/{2,}");
+
+    //  Sorted keys so that fingerprints don't depend on field or map order
+    private final ObjectMapper canonicalMapper = new ObjectMapper()
+        .configure(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY, true)
+        .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    private final Map<String, Endpoint.Info> distinctEndpoints = new LinkedHashMap<>();
+    //  The URL of each stored endpoint as written, which the references with a different one override
+    private final Map<String, JsonNode> distinctUrlPaths = new HashMap<>();
+    private final Map<String, List<EndpointReference>> projectFingerprints = new LinkedHashMap<>();
+
+    private static class EndpointReference {
+        String fingerprint;
+        //  Null if the URL is the same as the stored endpoint's
+        JsonNode urlPath;
+    }
+
+    public int numEndpoints = 0;
+    //  Size of the same endpoints as a plain -json array
+    public long numUndeduplicatedBytes = 2;
+
+    public synchronized void add(String projectPath, Endpoint.Info[] infos) {
+        List<EndpointReference> fingerprints = projectFingerprints.get(projectPath);
+        if (fingerprints == null) {
+            fingerprints = list();
+            projectFingerprints.put(projectPath, fingerprints);
+        }
+
+        for (Endpoint.Info info : infos) {
+            ObjectNode tree = canonicalMapper.valueToTree(info);
+            String canonicalJson;
+            try {
+                canonicalJson = canonicalMapper.writeValueAsString(tree);
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("Unable to serialize endpoint", e);
+            }
+
+            String fingerprint = getFingerprint(tree);
+            JsonNode urlPath = tree.path("urlPath");
+            if (!distinctEndpoints.containsKey(fingerprint)) {
+                distinctEndpoints.put(fingerprint, info);
+                distinctUrlPaths.put(fingerprint, urlPath);
+            }
+
+            EndpointReference reference = new EndpointReference();
+            reference.fingerprint = fingerprint;
+            if (!urlPath.equals(distinctUrlPaths.get(fingerprint))) {
+                reference.urlPath = urlPath;
+            }
+            fingerprints.add(reference);
+
+            if (numEndpoints > 0) {
+                numUndeduplicatedBytes++;
+            }
+            numEndpoints++;
+            numUndeduplicatedBytes += canonicalJson.getBytes(StandardCharsets.UTF_8).length;
+        }
+    }
+
+    public int getNumDistinctEndpoints() {
+        return distinctEndpoints.size();
+    }
+
+    public int getNumProjects() {
+        return projectFingerprints.size();
+    }
+
+    //  The method, normalized URL and parameter signature identify the endpoint, and a hash of the remaining
+    //  fields, such as its project-relative file and lines, tells apart the same route defined in different code.
+    //  The URL as written isn't part of it, so endpoints that only differ in URL formatting (ie "/users/:id" and
+    //  "/users/{id}/") share a fingerprint and are written once, with the others referencing it with their URL.
+    String getFingerprint(ObjectNode info) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(info.path("httpMethod").asText().toUpperCase()).append('\n');
+        builder.append(normalizeUrl(info.path("urlPath").asText(null))).append('\n');
+
+        //  Parameter names in sorted order, each with its canonical JSON, ie its data and parameter types
+        JsonNode parameters = info.path("parameters");
+        if (parameters.isObject()) {
+            List<String> parameterNames = list();
+            Iterator<String> names = parameters.fieldNames();
+            while (names.hasNext()) {
+                parameterNames.add(names.next());
+            }
+            Collections.sort(parameterNames);
+            for (String name : parameterNames) {
+                builder.append(name).append('=').append(toCanonicalJson(parameters.get(name))).append(',');
+            }
+        } else if (!parameters.isMissingNode()) {
+            builder.append(toCanonicalJson(parameters));
+        }
+        builder.append('\n');
+
+        ObjectNode remainingFields = info.deepCopy();
+        remainingFields.remove("httpMethod");
+        remainingFields.remove("urlPath");
+        remainingFields.remove("parameters");
+        builder.append(Hashing.sha1Hex(toCanonicalJson(remainingFields)));
+
+        return Hashing.sha1Hex(builder.toString());
+    }
+
+    private String toCanonicalJson(JsonNode node) {
+        try {
+            return canonicalMapper.writeValueAsString(node);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unable to serialize endpoint", e);
+        }
+    }
+
+    static String normalizeUrl(String urlPath) {
+        if (urlPath == null) {
+            return "";
+        }
+
+        String normalized = REPEATED_SLASHES_PATTERN.matcher(urlPath).replaceAll("/");
+        normalized = PATH_PARAMETER_PATTERN.matcher(normalized).replaceAll("{}");
+        if (normalized.length() > 1 && normalized.endsWith("/")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        return normalized;
+    }
+
+    public synchronized ObjectNode build(ObjectMapper mapper) {
+        ObjectNode result = mapper.createObjectNode();
+        result.put("format", FORMAT_NAME);
+        result.put("version", VERSION);
+
+        ObjectNode endpoints = result.putObject("endpoints");
+        for (Map.Entry<String, Endpoint.Info> entry : distinctEndpoints.entrySet()) {
+            endpoints.set(entry.getKey(), mapper.valueToTree(entry.getValue()));
+        }
+
+        ObjectNode projects = result.putObject("projects");
+        for (Map.Entry<String, List<EndpointReference>> entry : projectFingerprints.entrySet()) {
+            ArrayNode fingerprints = projects.putArray(entry.getKey());
+            for (EndpointReference reference : entry.getValue()) {
+                if (reference.urlPath == null) {
+                    fingerprints.add(reference.fingerprint);
+                } else {
+                    ObjectNode override = fingerprints.addObject();
+                    override.put("fingerprint", reference.fingerprint);
+                    //  A missing URL is written as null, so that it still overrides the stored one
+                    override.set("urlPath", reference.urlPath.isMissingNode() ? override.nullNode() : reference.urlPath);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    static boolean isDeduplicated(JsonNode tree) {
+        return tree.isObject() && FORMAT_NAME.equals(tree.path("format").asText());
+    }
+
+    public static Map<String, List<Endpoint.Info>> read(JsonNode tree, ObjectMapper mapper) throws IOException {
+        checkFormat(tree);
+
+        Map<String, List<Endpoint.Info>> result = new LinkedHashMap<>();
+        Iterator<Map.Entry<String, JsonNode>> projects = tree.path("projects").fields();
+        while (projects.hasNext()) {
+            Map.Entry<String, JsonNode> project = projects.next();
+            List<Endpoint.Info> infos = list();
+            for (JsonNode endpoint : expand(tree, project.getValue())) {
+                infos.add(mapper.convertValue(endpoint, Endpoint.Info.class));
+            }
+            result.put(project.getKey(), infos);
+        }
+        return result;
+    }
+
+    //  Restores the JSON form of each Endpoint.Info, project by project, as -json would have written them
+    static List<JsonNode> expand(JsonNode tree) throws IOException {
+        checkFormat(tree);
+
+        List<JsonNode> result = list();
+        for (JsonNode fingerprints : tree.path("projects")) {
+            result.addAll(expand(tree, fingerprints));
+        }
+        return result;
+    }
+
+    private static void checkFormat(JsonNode tree) throws IOException {
+        if (!isDeduplicated(tree)) {
+            throw new IOException("Not a deduplicated endpoint list");
+        }
+        if (tree.path("version").asInt() != VERSION) {
+            throw new IOException("Unsupported deduplicated endpoint list version " + tree.path("version").asInt());
+        }
+    }
+
+    private static List<JsonNode> expand(JsonNode tree, JsonNode fingerprints) throws IOException {
+        JsonNode endpoints = tree.path("endpoints");
+        List<JsonNode> result = list();
+        for (JsonNode reference : fingerprints) {
+            String fingerprint = reference.isObject() ? reference.path("fingerprint").asText() : reference.asText();
+            JsonNode endpoint = endpoints.get(fingerprint);
+            if (endpoint == null) {
+                throw new IOException("Missing endpoint for fingerprint " + fingerprint);
+            }
+            if (reference.isObject()) {
+                ObjectNode overridden = endpoint.deepCopy();
+                JsonNode urlPath = reference.path("urlPath");
+                if (urlPath.isNull() && !endpoint.has("urlPath")) {
+                    overridden.remove("urlPath");
+                } else {
+                    overridden.set("urlPath", urlPath);
+                }
+                endpoint = overridden;
+            }
+            result.add(endpoint);
+        }
+        return result;
+    }
+}
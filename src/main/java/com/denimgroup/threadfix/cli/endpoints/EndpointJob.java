@@ -26,11 +26,60 @@ package com.denimgroup.threadfix.cli.endpoints;
 import com.denimgroup.threadfix.data.enums.FrameworkType;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+
+import static com.denimgroup.threadfix.CollectionUtils.list;
 
 public class EndpointJob {
 
     public Collection<FrameworkType> frameworkTypes;
     public File sourceCodePath;
+    //  Null when all files are scanned
+    public SourceFilter sourceFilter;
+
+    public JobTiming timing = new JobTiming();
+    //  -1 if it wasn't measured
+    public long peakHeapBytes = -1;
+    //  The job's contribution to the summary totals, which is only added to them once the job has completed
+    public JobCounters counters = new JobCounters();
+    //  The size of the job's source, taken from the scheduler's estimate or the job's own scan. Null if it wasn't measured
+    public ProjectSizeEstimator.ProjectSize size;
+    //  Whether the results were reused from -skip-unchanged or -journal rather than scanned
+    public boolean isReused = false;
+
+    //  Stop the helper threads the job started, ie its -prefetch readers, if it is abandoned after -project-timeout
+    private final List<Runnable> cancellations = list();
+
+    public synchronized void addCancellation(Runnable cancellation) {
+        cancellations.add(cancellation);
+    }
+
+    public synchronized void removeCancellation(Runnable cancellation) {
+        cancellations.remove(cancellation);
+    }
+
+    public void cancel() {
+        List<Runnable> toRun;
+        synchronized (this) {
+            toRun = new ArrayList<>(cancellations);
+            cancellations.clear();
+        }
+        for (Runnable cancellation : toRun) {
+            cancellation.run();
+        }
+    }
 
+    //  Identifies the job across runs. The same path can be listed more than once with different frameworks
+    public String getKey() {
+        StringBuilder key = new StringBuilder(sourceCodePath.getAbsolutePath());
+        for (FrameworkType frameworkType : frameworkTypes) {
+            key.append('|').append(frameworkType.name());
+        }
+        if (sourceFilter != null) {
+            key.append('|').append(sourceFilter);
+        }
+        return key.toString();
+    }
 }
@@ -26,7 +26,6 @@
 
 package com.denimgroup.threadfix.cli.endpoints;
 
-import com.denimgroup.threadfix.data.entities.RouteParameter;
 import com.denimgroup.threadfix.data.entities.RouteParameterType;
 import com.denimgroup.threadfix.data.entities.WildcardEndpointPathNode;
 import com.denimgroup.threadfix.data.enums.FrameworkType;
@@ -51,9 +50,20 @@ import org.apache.logging.log4j.core.config.LoggerConfig;
 
 import java.io.*;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static com.denimgroup.threadfix.CollectionUtils.list;
 import static com.denimgroup.threadfix.CollectionUtils.map;
@@ -66,15 +76,62 @@ public class EndpointMain {
         ON, OFF
     }
 
+    enum Validation {
+        NONE, SAMPLE, FULL
+    }
+
     static String PRINTLN_SEPARATOR = StringUtils.repeat('-', 10);
 
     static Logging logging = Logging.OFF;
+    static Validation validation = Validation.FULL;
+    static int validationSampleSize = 200;
+    static long validationSeed = 0;
     static Endpoint.PrintFormat printFormat = Endpoint.PrintFormat.DYNAMIC;
     static FrameworkType defaultFramework = FrameworkType.DETECT;
     static boolean simplePrint = false;
     static String pathListFile = null;
+    static String discoverRoot = null;
+    static int shardNumber = 0;
+    static int numShards = 0;
+    static String mergeInputs = null;
     static String outputFilePath = null;
     static boolean cleanSourceCode = true;
+    static boolean watchMode = false;
+    static int projectTimeoutSeconds = 0;
+
+    static String[] originalArgs = null;
+    static WorkerPool workerPool = null;
+    static RunJournal runJournal = null;
+    static SourceFilter sourceFilter = new SourceFilter();
+    static int prefetchThreads = 0;
+    //  0 unless -split-subprojects is given
+    static int splitThreads = 0;
+    static ExtractionCache extractionCache = null;
+    static String extractionCachePath = null;
+    static long extractionCacheMaxBytes = 10L * 1024 * 1024 * 1024;
+    static boolean routeTreeOutput = false;
+    static boolean deduplicateOutput = false;
+    static DeduplicatedOutput deduplicatedOutput = null;
+    static boolean fastFrameworkDetection = false;
+    static boolean benchmarkDetection = false;
+    static String journalPath = null;
+    static boolean resumeRun = false;
+    static int numWorkers = 0;
+    static boolean longestFirst = false;
+    static String jobStatsPath = null;
+    static JobScheduler jobScheduler = null;
+    //  Whether each job's scan should measure the size of its source, if the scheduler hasn't already
+    static boolean measureJobSizes = false;
+    static boolean progressToConsole = false;
+    static long progressIntervalSeconds = 10;
+    static String progressFilePath = null;
+    static ProgressReporter progressReporter = null;
+    static String perfBaselinePath = null;
+    static long perfTolerancePercent = 20;
+    static boolean perfBaselineUpdate = false;
+    static PerfBaseline perfBaseline = null;
+    static String workerHeapSize = "2g";
+    static boolean workerMode = false;
 
     static int totalDetectedEndpoints = 0;
     static int totalDistinctEndpoints = 0;
@@ -83,26 +140,173 @@ public class EndpointMain {
 
     static int numProjectsWithDuplicates = 0;
 
+    static int numProjects = 0;
+    static int numProjectsWithEndpoints = 0;
+    static List<String> projectsMissingEndpoints = list();
+    static List<String> projectsTimedOut = list();
+    static List<String> projectsFailed = list();
+    static List<Endpoint> allEndpoints = list();
+    static ColumnarEndpointStore endpointStore = new ColumnarEndpointStore();
+
     static String testUrlPath = null;
     static Credentials testCredentials = null;
+    static ProbeCache probeCache = null;
+    static String probeCachePath = null;
+    static long probeCacheTtlSeconds = 24 * 60 * 60;
+    static boolean probeCacheRefresh = false;
+
+    static ProjectChangeCache changeCache = null;
+
+    static String buildIndexPath = null;
+    static RouteTrie routeIndex = null;
+    static String lookupIndexPath = null;
+    static String lookupUrlsFile = null;
+    static List<String> accessLogPaths = list();
+
+    private static final Pattern PATH_LIST_OPTION_PATTERN = Pattern.compile("\\s-(include|exclude)=");
+
+    static OutputSink output = new AsyncOutputSink(System.out);
 
-    private static void println(String line) {
+    //  Detection threads that exceeded -project-timeout and were left running, which must not print over later jobs
+    private static final Set<Thread> abandonedThreads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+
+    static void println(String line) {
+        if (abandonedThreads.contains(Thread.currentThread())) {
+            return;
+        }
         if (printFormat != SIMPLE_JSON && printFormat != FULL_JSON) {
-            System.out.println(line);
+            output.println(line);
+        }
+    }
+
+    //  For reports that are needed in every output format. The JSON formats always write the JSON to stdout, so
+    //  the reports go to stderr instead.
+    static void printReport(String line) {
+        if (printFormat == SIMPLE_JSON || printFormat == FULL_JSON) {
+            System.err.println(line);
+        } else {
+            output.println(line);
         }
     }
 
     public static void main(String[] args) {
         if (checkArguments(args)) {
             resetLoggingConfiguration();
-            List<String> projectsMissingEndpoints = list();
-            int numProjectsWithEndpoints = 0;
-            int numProjects = 0;
 
-            List<Endpoint> allEndpoints = list();
+            if (lookupIndexPath != null) {
+                //  Results are written straight to stdout
+                output.flush();
+                lookupUrls();
+                return;
+            }
+
+            if (workerMode) {
+                WorkerPool.runWorker();
+                return;
+            }
+
+            if (mergeInputs != null) {
+                output.flush();
+                mergeShards();
+                return;
+            }
+
+            if (journalPath != null) {
+                try {
+                    runJournal = new RunJournal(new File(journalPath), resumeRun);
+                    if (resumeRun) {
+                        println("Resuming from journal '" + journalPath + "' with " + runJournal.getNumCompletedJobs() + " completed projects");
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    output.println("Unable to open journal at '" + journalPath + "'");
+                    return;
+                }
+            } else if (resumeRun) {
+                output.println("-resume requires -journal and will be ignored");
+            }
+
+            if (extractionCachePath != null) {
+                extractionCache = new ExtractionCache(new File(extractionCachePath), extractionCacheMaxBytes);
+            }
+
+            if (perfBaselinePath != null) {
+                try {
+                    perfBaseline = new PerfBaseline(new File(perfBaselinePath), perfTolerancePercent / 100.0);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    output.println("Unable to read the performance baseline at '" + perfBaselinePath + "'");
+                    return;
+                }
+            }
+
+            if (progressToConsole || progressFilePath != null) {
+                progressReporter = new ProgressReporter(progressIntervalSeconds * 1000,
+                    progressToConsole ? System.err : null,
+                    progressFilePath != null ? new File(progressFilePath) : null);
+                progressReporter.start();
+                //  The files/s figure counts the files of each scanned job
+                measureJobSizes = true;
+            }
+
+            if (probeCachePath != null) {
+                if (testUrlPath == null) {
+                    output.println("-probe-cache only applies to -validation-server and will be ignored");
+                } else {
+                    probeCache = new ProbeCache(new File(probeCachePath), probeCacheTtlSeconds * 1000, probeCacheRefresh);
+                }
+            }
+
+            if (numWorkers > 0) {
+                if (pathListFile == null && discoverRoot == null) {
+                    output.println("-workers only applies to -path-list-file and -discover and will be ignored");
+                } else {
+                    workerPool = new WorkerPool(numWorkers, workerHeapSize, getWorkerArguments());
+                    workerPool.start();
+                }
+            }
 
             if (outputFilePath != null && !(printFormat == SIMPLE_JSON || printFormat == FULL_JSON)) {
-                System.out.println("An output file path was specified but neither -json nor -simple-json flags were set, output file path will be ignored");
+                output.println("An output file path was specified but neither -json nor -simple-json flags were set, output file path will be ignored");
+            }
+
+            if (benchmarkDetection && pathListFile == null) {
+                output.println("-benchmark-detection only applies to -path-list-file and will be ignored");
+            }
+
+            if (routeTreeOutput && printFormat != SIMPLE_JSON) {
+                output.println("-route-tree only applies to -json and will be ignored");
+            }
+
+            if (deduplicateOutput) {
+                if (printFormat != SIMPLE_JSON) {
+                    output.println("-deduplicate only applies to -json and will be ignored");
+                } else {
+                    if (routeTreeOutput) {
+                        output.println("-route-tree cannot be combined with -deduplicate and will be ignored");
+                        routeTreeOutput = false;
+                    }
+                    deduplicatedOutput = new DeduplicatedOutput();
+                }
+            }
+
+            if (numShards > 0 && pathListFile == null) {
+                output.println("-shard only applies to -path-list-file and will be ignored");
+            }
+
+            if (longestFirst || jobStatsPath != null) {
+                if (pathListFile == null) {
+                    output.println("-longest-first and -job-stats only apply to -path-list-file and will be ignored");
+                } else {
+                    jobScheduler = new JobScheduler(jobStatsPath != null ? new File(jobStatsPath) : null);
+                    if (jobStatsPath != null) {
+                        measureJobSizes = true;
+                    }
+                }
+            }
+
+            if (watchMode && (pathListFile != null || discoverRoot != null)) {
+                output.println("-watch cannot be used with -path-list-file or -discover and will be ignored");
             }
 
             if (pathListFile != null) {
@@ -113,9 +317,27 @@ public class EndpointMain {
                 try {
                     fileContents = FileUtils.readLines(new File(pathListFile));
                     List<EndpointJob> requestedTargets = list();
+                    List<File> benchmarkProjects = list();
                     int lineNo = 1;
                     for (String line : fileContents) {
                         line = line.trim();
+
+                        //  Lines can end with their own -include=/-exclude= options, which add to the global ones
+                        SourceFilter lineFilter = sourceFilter.copy();
+                        Matcher lineOptions = PATH_LIST_OPTION_PATTERN.matcher(line);
+                        if (!line.startsWith("#") && lineOptions.find()) {
+                            for (String option : StringUtils.split(line.substring(lineOptions.start()))) {
+                                if (option.startsWith("-include=")) {
+                                    lineFilter.addIncludes(option.substring("-include=".length()));
+                                } else if (option.startsWith("-exclude=")) {
+                                    lineFilter.addExcludes(option.substring("-exclude=".length()));
+                                } else {
+                                    println("WARN - Ignoring unsupported option '" + option + "' at line " + lineNo + " of " + pathListFile);
+                                }
+                            }
+                            line = line.substring(0, lineOptions.start()).trim();
+                        }
+
                         if (line.startsWith("#!")) {
                             isLongComment = true;
                         } else if (line.startsWith("!#")) {
@@ -137,13 +359,15 @@ public class EndpointMain {
                                 println("WARN - Unable to find input path '" + line + "' at line " + lineNo + " of " + pathListFile);
                             } else if (!asFile.isDirectory() && !isZipFile(asFile.getAbsolutePath())) {
                                 println("WARN - Input path '" + line + "' is not a directory or ZIP, at line " + lineNo + " of " + pathListFile);
+                            } else if (benchmarkDetection) {
+                                benchmarkProjects.add(asFile);
                             } else {
                                 if (frameworkType == FrameworkType.NONE) {
                                     println("WARN: Couldn't parse framework type: '" + frameworkType + "', for '" + asFile.getName() + "' using DETECT");
                                 }
 
                                 if (frameworkType == FrameworkType.DETECT) {
-                                    compositeFrameworkTypes = FrameworkCalculator.getTypes(asFile);
+                                    compositeFrameworkTypes = detectFrameworks(asFile);
                                 }
 
                                 EndpointJob newJob = new EndpointJob();
@@ -152,37 +376,42 @@ public class EndpointMain {
                                 }
                                 newJob.frameworkTypes = compositeFrameworkTypes;
                                 newJob.sourceCodePath = asFile;
+                                newJob.sourceFilter = lineFilter.isEmpty() ? null : lineFilter;
                                 requestedTargets.add(newJob);
                             }
                         }
                         ++lineNo;
                     }
 
-                    numProjects = requestedTargets.size();
+                    if (benchmarkDetection) {
+                        FrameworkDetectionBenchmark.run(benchmarkProjects);
+                        return;
+                    }
 
-                    boolean isFirst = true;
-                    for (EndpointJob job : requestedTargets) {
-                        if (isFirst) {
-                            println(PRINTLN_SEPARATOR);
-                            isFirst = false;
-                        }
-                        println("Beginning endpoint detection for '" + job.sourceCodePath.getAbsolutePath() + "' with " + job.frameworkTypes.size() + " framework types");
-                        for (FrameworkType subType : job.frameworkTypes) {
-                            println("Using framework=" + subType);
+                    if (numShards > 0) {
+                        int numParsedTargets = requestedTargets.size();
+                        requestedTargets = JobSharding.selectShard(requestedTargets, shardNumber, numShards);
+                        println("Scanning " + requestedTargets.size() + "/" + numParsedTargets + " projects for shard " + shardNumber + "/" + numShards);
+                    }
+
+                    if (jobScheduler != null) {
+                        requestedTargets = jobScheduler.schedule(requestedTargets, longestFirst);
+                        if (longestFirst) {
+                            println("Scanning projects longest first, " + jobScheduler.numCostedByHistory + " ordered by their time in earlier runs and " +
+                                jobScheduler.numCostedBySize + " by their size");
                         }
-                        List<Endpoint> generatedEndpoints = listEndpoints(job.sourceCodePath, job.frameworkTypes);
-                        println("Finished endpoint detection for '" + job.sourceCodePath.getAbsolutePath() + "'");
-                        println(PRINTLN_SEPARATOR);
+                    }
 
-                        if (!generatedEndpoints.isEmpty()) {
-                            ++numProjectsWithEndpoints;
+                    if (progressReporter != null) {
+                        progressReporter.addToTotal(requestedTargets.size());
+                        progressReporter.finishTotal();
+                    }
 
-                            if (printFormat == SIMPLE_JSON || printFormat == FULL_JSON) {
-                                allEndpoints.addAll(generatedEndpoints);
-                            }
-                        } else {
-                            projectsMissingEndpoints.add(job.sourceCodePath.getAbsolutePath());
-                        }
+                    if (!requestedTargets.isEmpty()) {
+                        println(PRINTLN_SEPARATOR);
+                    }
+                    for (EndpointJob job : requestedTargets) {
+                        dispatchJob(job);
                     }
 
                 } catch (IOException e) {
@@ -190,56 +419,121 @@ public class EndpointMain {
                     println("Unable to read path-list at " + pathListFile);
                     printError();
                 }
-            } else {
-                ++numProjects;
+            } else if (discoverRoot != null) {
+                println("Discovering projects under '" + discoverRoot + "'");
+                ProjectDiscovery discovery = new ProjectDiscovery(new File(discoverRoot));
+                discovery.start();
 
+                println(PRINTLN_SEPARATOR);
+                try {
+                    EndpointJob job;
+                    while ((job = discovery.takeNext()) != null) {
+                        job.sourceFilter = getGlobalSourceFilter();
+                        if (progressReporter != null) {
+                            progressReporter.addToTotal(1);
+                        }
+                        dispatchJob(job);
+                    }
+                    if (progressReporter != null) {
+                        progressReporter.finishTotal();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } else {
                 File rootFolder = new File(args[0]);
 
                 List<FrameworkType> compositeFrameworkTypes = list();
-                if (defaultFramework == FrameworkType.DETECT) {
-                    compositeFrameworkTypes.addAll(FrameworkCalculator.getTypes(rootFolder));
+                if (defaultFramework == FrameworkType.DETECT && splitThreads > 0 && !watchMode) {
+                    //  Detected for each sub-project instead, or for the whole folder if it can't be split
+                    compositeFrameworkTypes.add(FrameworkType.DETECT);
+                } else if (defaultFramework == FrameworkType.DETECT) {
+                    compositeFrameworkTypes.addAll(detectFrameworks(rootFolder));
                 } else {
                     compositeFrameworkTypes.add(defaultFramework);
                 }
 
-                println("Beginning endpoint detection for '" + rootFolder.getAbsolutePath() + "' with " + compositeFrameworkTypes.size() + " framework types");
-                for (FrameworkType subType : compositeFrameworkTypes) {
-                    println("Using framework=" + subType);
+                if (watchMode) {
+                    if (!sourceFilter.isEmpty()) {
+                        output.println("-include and -exclude do not apply to -watch and will be ignored");
+                    }
+                    try {
+                        new EndpointWatcher(rootFolder, compositeFrameworkTypes).watch();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        println("Unable to watch " + rootFolder.getAbsolutePath() + " for changes");
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return;
                 }
 
-                Collection<Endpoint> newEndpoints = listEndpoints(rootFolder, compositeFrameworkTypes);
+                EndpointJob job = new EndpointJob();
+                job.frameworkTypes = compositeFrameworkTypes;
+                job.sourceCodePath = rootFolder;
+                job.sourceFilter = getGlobalSourceFilter();
 
-                println("Finished endpoint detection for '" + rootFolder.getAbsolutePath() + "'");
-                println(PRINTLN_SEPARATOR);
+                if (progressReporter != null) {
+                    progressReporter.addToTotal(1);
+                    progressReporter.finishTotal();
+                }
+                runJob(job);
+            }
 
-                if (!newEndpoints.isEmpty()) {
-                    ++numProjectsWithEndpoints;
-                    if (printFormat == SIMPLE_JSON || printFormat == FULL_JSON) {
-                        allEndpoints.addAll(newEndpoints);
-                    }
-                } else {
-                    projectsMissingEndpoints.add(rootFolder.getAbsolutePath());
+            if (workerPool != null) {
+                try {
+                    workerPool.finish();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            if (progressReporter != null) {
+                progressReporter.stop();
+            }
+
+            if (jobScheduler != null) {
+                jobScheduler.save();
+                if (longestFirst) {
+                    printMakespan();
                 }
             }
 
             if (!simplePrint) {
-                if (printFormat == SIMPLE_JSON) {
-                    Endpoint.Info[] infos = getEndpointInfo(allEndpoints);
+                if (printFormat == SIMPLE_JSON && deduplicatedOutput != null) {
+                    try {
+                        ObjectMapper mapper = new ObjectMapper();
+                        String s = mapper.writeValueAsString(deduplicatedOutput.build(mapper));
+                        output.println(s);
 
+                        if (outputFilePath != null) {
+                            FileUtils.writeStringToFile(new File(outputFilePath), s);
+                        }
+                        printDeduplicationReport(s.getBytes(StandardCharsets.UTF_8).length);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                } else if (printFormat == SIMPLE_JSON) {
                     try {
-                        String s = new ObjectMapper().writeValueAsString(infos);
-                        System.out.println(s);
+                        ObjectMapper mapper = new ObjectMapper();
+                        String s = routeTreeOutput ?
+                            mapper.writeValueAsString(RouteTreeOutput.build(endpointStore, mapper)) :
+                            endpointStore.toJson();
+                        output.println(s);
 
                         if (outputFilePath != null) {
                             FileUtils.writeStringToFile(new File(outputFilePath), s);
                         }
+                        if (endpointStore.getNumProjects() > 1) {
+                            printEndpointStoreReport();
+                        }
                     } catch (IOException e) {
                         throw new RuntimeException(e);
                     }
                 } else if (printFormat == FULL_JSON) {
                     try {
                         String s = EndpointSerialization.serializeAll(allEndpoints);
-                        System.out.println(s);
+                        output.println(s);
 
                         if (outputFilePath != null) {
                             FileUtils.writeStringToFile(new File(outputFilePath), s);
@@ -250,32 +544,156 @@ public class EndpointMain {
                 }
             }
 
+            if (!accessLogPaths.isEmpty()) {
+                correlateAccessLogs();
+            }
 
+            if (buildIndexPath != null) {
+                try {
+                    RouteIndexFile.write(routeIndex, new File(buildIndexPath));
+                    println("Wrote route index for " + routeIndex.getRoutes().size() + " endpoints to '" + buildIndexPath + "'");
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    println("Unable to write route index to '" + buildIndexPath + "'");
+                }
+            }
 
-            println("-- DONE --");
-
-            println(numProjectsWithDuplicates + " projects had duplicate endpoints");
-
-            println("Generated " + totalDistinctEndpoints + " distinct endpoints");
-            println("Generated " + totalDetectedEndpoints + " total endpoints");
-            println("Generated " + totalDistinctParameters + " distinct parameters");
-            println("Generated " + totalDetectedParameters + " total parameters");
-            println(numProjectsWithEndpoints + "/" + numProjects + " projects had endpoints generated");
-            if (!projectsMissingEndpoints.isEmpty()) {
-                println("The following projects were missing endpoints:");
-                for (String path : projectsMissingEndpoints) {
-                    println("--- " + path);
+            RunSummary summary = getRunSummary();
+            if (numShards > 0 && outputFilePath != null) {
+                try {
+                    new ObjectMapper().writeValue(new File(outputFilePath + ShardMerger.SUMMARY_SUFFIX), summary);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    println("Unable to write shard summary for '" + outputFilePath + "'");
                 }
             }
 
+            printSummary(summary);
+
             if (printFormat != SIMPLE_JSON && printFormat != FULL_JSON) {
                 println("To enable logging include the -debug argument");
             }
+
+            if (perfBaseline != null && !checkPerfBaseline()) {
+                output.flush();
+                System.exit(1);
+            }
         } else {
             printError();
         }
     }
 
+    //  Returns false if the run was significantly slower or heavier than the -perf-baseline
+    private static boolean checkPerfBaseline() {
+        PerfBaseline.Comparison comparison = null;
+        if (perfBaseline.hasBaseline()) {
+            comparison = perfBaseline.compare();
+            printReport("Compared " + perfBaseline.getNumProjects() + " projects against the performance baseline at '" +
+                perfBaselinePath + "' with a tolerance of " + perfTolerancePercent + "%");
+            for (String note : comparison.notes) {
+                printReport("- " + note);
+            }
+            if (comparison.regressions.isEmpty()) {
+                printReport("No performance regressions");
+            } else {
+                printReport(comparison.regressions.size() + " performance regressions:");
+                for (String regression : comparison.regressions) {
+                    printReport("- " + regression);
+                }
+            }
+        }
+
+        if (!perfBaseline.hasBaseline() || perfBaselineUpdate) {
+            try {
+                perfBaseline.save();
+                printReport("Recorded the performance of " + perfBaseline.getNumProjects() + " projects as the baseline at '" + perfBaselinePath + "'");
+            } catch (IOException e) {
+                e.printStackTrace();
+                printReport("Unable to write the performance baseline to '" + perfBaselinePath + "'");
+            }
+        }
+
+        return comparison == null || comparison.regressions.isEmpty();
+    }
+
+    private static RunSummary getRunSummary() {
+        RunSummary summary = new RunSummary();
+        summary.numProjects = numProjects;
+        summary.numProjectsWithEndpoints = numProjectsWithEndpoints;
+        summary.numProjectsWithDuplicates = numProjectsWithDuplicates;
+        summary.totalDetectedEndpoints = totalDetectedEndpoints;
+        summary.totalDistinctEndpoints = totalDistinctEndpoints;
+        summary.totalDetectedParameters = totalDetectedParameters;
+        summary.totalDistinctParameters = totalDistinctParameters;
+        summary.projectsMissingEndpoints.addAll(projectsMissingEndpoints);
+        summary.projectsTimedOut.addAll(projectsTimedOut);
+        summary.projectsFailed.addAll(projectsFailed);
+        return summary;
+    }
+
+    private static void printSummary(RunSummary summary) {
+        for (String line : getSummaryLines(summary)) {
+            println(line);
+        }
+    }
+
+    private static List<String> getSummaryLines(RunSummary summary) {
+        List<String> lines = list();
+        lines.add("-- DONE --");
+
+        lines.add(summary.numProjectsWithDuplicates + " projects had duplicate endpoints");
+
+        lines.add("Generated " + summary.totalDistinctEndpoints + " distinct endpoints");
+        lines.add("Generated " + summary.totalDetectedEndpoints + " total endpoints");
+        lines.add("Generated " + summary.totalDistinctParameters + " distinct parameters");
+        lines.add("Generated " + summary.totalDetectedParameters + " total parameters");
+        lines.add(summary.numProjectsWithEndpoints + "/" + summary.numProjects + " projects had endpoints generated");
+        if (!summary.projectsMissingEndpoints.isEmpty()) {
+            lines.add("The following projects were missing endpoints:");
+            for (String path : summary.projectsMissingEndpoints) {
+                lines.add("--- " + path);
+            }
+        }
+        if (!summary.projectsFailed.isEmpty()) {
+            lines.add("The following projects failed:");
+            for (String details : summary.projectsFailed) {
+                lines.add("--- " + details);
+            }
+        }
+        if (!summary.projectsTimedOut.isEmpty()) {
+            lines.add("The following projects timed out:");
+            for (String details : summary.projectsTimedOut) {
+                lines.add("--- " + details);
+            }
+        }
+        return lines;
+    }
+
+    private static void mergeShards() {
+        List<String> shardOutputs = list();
+        for (String path : StringUtils.split(mergeInputs, ',')) {
+            shardOutputs.add(path.trim());
+        }
+
+        try {
+            RunSummary summary = ShardMerger.merge(shardOutputs, outputFilePath);
+
+            //  The summary would corrupt the merged JSON if both were written to stdout
+            if (outputFilePath != null) {
+                output.println("Merged " + shardOutputs.size() + " shards into '" + outputFilePath + "'");
+                printSummary(summary);
+            } else {
+                System.err.println("Merged " + shardOutputs.size() + " shards");
+                for (String line : getSummaryLines(summary)) {
+                    System.err.println(line);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            output.println("Unable to merge shard outputs");
+        }
+    }
+
     private static boolean isZipFile(String filePath) {
         String ext = FilenameUtils.getExtension(filePath).toLowerCase();
         return
@@ -288,6 +706,8 @@ public class EndpointMain {
             return false;
         }
 
+        originalArgs = args;
+
         for (String arg : args) {
             if (arg.equals("-help")) {
                 printHelp();
@@ -297,7 +717,7 @@ public class EndpointMain {
 
         File rootFile = new File(args[0]);
 
-        if (rootFile.exists() && rootFile.isDirectory() || args[0].startsWith("-path-list-file")) {
+        if (rootFile.exists() && rootFile.isDirectory() || args[0].startsWith("-path-list-file") || args[0].startsWith("-discover=") || args[0].startsWith("-lookup=") || args[0].startsWith("-merge=") || args[0].equals("-worker")) {
 
             List<String> arguments = list(args);
 
@@ -308,10 +728,45 @@ public class EndpointMain {
             for (String arg : arguments) {
                 if (arg.equals("-debug")) {
                     logging = Logging.ON;
+                } else if (arg.startsWith("-validate=")) {
+                    String value = arg.substring("-validate=".length());
+                    try {
+                        validation = Validation.valueOf(value.toUpperCase());
+                    } catch (IllegalArgumentException e) {
+                        println("Invalid -validate argument '" + value + "', expected none, sample or full");
+                        return false;
+                    }
+                } else if (arg.startsWith("-validate-sample=")) {
+                    String value = arg.substring("-validate-sample=".length());
+                    try {
+                        validationSampleSize = Integer.parseInt(value);
+                    } catch (NumberFormatException e) {
+                        validationSampleSize = -1;
+                    }
+                    if (validationSampleSize < 1) {
+                        println("Invalid -validate-sample argument '" + value + "', expected a number of endpoints ie 200");
+                        return false;
+                    }
+                } else if (arg.startsWith("-validate-seed=")) {
+                    String value = arg.substring("-validate-seed=".length());
+                    try {
+                        validationSeed = Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        println("Invalid -validate-seed argument '" + value + "', expected a number");
+                        return false;
+                    }
                 } else if (arg.equals("-lint")) {
                     printFormat = Endpoint.PrintFormat.LINT;
                 } else if (arg.equals("-json")) {
                     printFormat = SIMPLE_JSON;
+                } else if (arg.equals("-fast-detect")) {
+                    fastFrameworkDetection = true;
+                } else if (arg.equals("-benchmark-detection")) {
+                    benchmarkDetection = true;
+                } else if (arg.equals("-route-tree")) {
+                    routeTreeOutput = true;
+                } else if (arg.equals("-deduplicate")) {
+                    deduplicateOutput = true;
                 } else if (arg.equals("-full-json")) {
                     printFormat = FULL_JSON;
                 } else if (arg.contains(FRAMEWORK_COMMAND)) {
@@ -320,6 +775,8 @@ public class EndpointMain {
                     defaultFramework = FrameworkType.getFrameworkType(frameworkName);
                 } else if (arg.contains("-keep-source")) {
                     cleanSourceCode = false;
+                } else if (arg.equals("-watch")) {
+                    watchMode = true;
                 } else if (arg.equals("-simple")) {
                     simplePrint = true;
                 } else if (arg.startsWith("-output-file=")) {
@@ -346,9 +803,161 @@ public class EndpointMain {
                         path = path.substring(0, path.length() - 1);
                     }
                     pathListFile = path;
+                } else if (arg.startsWith("-skip-unchanged=")) {
+                    String path = arg.substring("-skip-unchanged=".length());
+                    if (path.isEmpty()) {
+                        println("Invalid -skip-unchanged argument, value is empty");
+                        continue;
+                    }
+                    changeCache = new ProjectChangeCache(new File(path).getAbsoluteFile());
+                } else if (arg.startsWith("-build-index=")) {
+                    buildIndexPath = new File(arg.substring("-build-index=".length())).getAbsolutePath();
+                    routeIndex = new RouteTrie();
+                } else if (arg.startsWith("-access-log=")) {
+                    accessLogPaths.add(arg.substring("-access-log=".length()));
+                    if (routeIndex == null) {
+                        routeIndex = new RouteTrie();
+                    }
+                } else if (arg.startsWith("-lookup=")) {
+                    lookupIndexPath = arg.substring("-lookup=".length());
+                } else if (arg.startsWith("-lookup-urls=")) {
+                    lookupUrlsFile = arg.substring("-lookup-urls=".length());
+                } else if (arg.startsWith("-discover=")) {
+                    String path = arg.substring("-discover=".length());
+                    if (!new File(path).isDirectory()) {
+                        println("Invalid -discover argument, '" + path + "' is not a directory");
+                        return false;
+                    }
+                    discoverRoot = path;
+                } else if (arg.startsWith("-project-timeout=")) {
+                    String value = arg.substring("-project-timeout=".length());
+                    try {
+                        projectTimeoutSeconds = Integer.parseInt(value);
+                    } catch (NumberFormatException e) {
+                        println("Invalid -project-timeout argument, '" + value + "' is not a number of seconds");
+                        return false;
+                    }
+                } else if (arg.startsWith("-workers=")) {
+                    String value = arg.substring("-workers=".length());
+                    try {
+                        numWorkers = Integer.parseInt(value);
+                    } catch (NumberFormatException e) {
+                        println("Invalid -workers argument, '" + value + "' is not a number");
+                        return false;
+                    }
+                } else if (arg.startsWith("-worker-heap=")) {
+                    workerHeapSize = arg.substring("-worker-heap=".length());
+                } else if (arg.equals("-worker")) {
+                    workerMode = true;
+                } else if (arg.startsWith("-shard=")) {
+                    String value = arg.substring("-shard=".length());
+                    String[] parts = value.split("/");
+                    try {
+                        shardNumber = Integer.parseInt(parts[0].trim());
+                        numShards = Integer.parseInt(parts[1].trim());
+                    } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                        numShards = 0;
+                    }
+                    if (numShards < 1 || shardNumber < 1 || shardNumber > numShards) {
+                        println("Invalid -shard argument '" + value + "', expected <SHARD>/<COUNT> ie 1/4");
+                        return false;
+                    }
+                } else if (arg.startsWith("-merge=")) {
+                    mergeInputs = arg.substring("-merge=".length());
+                } else if (arg.startsWith("-include=")) {
+                    sourceFilter.addIncludes(arg.substring("-include=".length()));
+                } else if (arg.startsWith("-exclude=")) {
+                    sourceFilter.addExcludes(arg.substring("-exclude=".length()));
+                } else if (arg.startsWith("-prefetch=")) {
+                    String value = arg.substring("-prefetch=".length());
+                    try {
+                        prefetchThreads = Integer.parseInt(value);
+                    } catch (NumberFormatException e) {
+                        prefetchThreads = -1;
+                    }
+                    if (prefetchThreads < 1) {
+                        println("Invalid -prefetch argument '" + value + "', expected a number of threads ie 16");
+                        return false;
+                    }
+                } else if (arg.equals("-split-subprojects")) {
+                    splitThreads = Runtime.getRuntime().availableProcessors();
+                } else if (arg.startsWith("-split-subprojects=")) {
+                    String value = arg.substring("-split-subprojects=".length());
+                    try {
+                        splitThreads = Integer.parseInt(value);
+                    } catch (NumberFormatException e) {
+                        splitThreads = -1;
+                    }
+                    if (splitThreads < 1) {
+                        println("Invalid -split-subprojects argument '" + value + "', expected a number of threads ie 8");
+                        return false;
+                    }
+                } else if (arg.startsWith("-extraction-cache=")) {
+                    extractionCachePath = arg.substring("-extraction-cache=".length());
+                } else if (arg.startsWith("-extraction-cache-size=")) {
+                    String value = arg.substring("-extraction-cache-size=".length());
+                    extractionCacheMaxBytes = parseByteSize(value);
+                    if (extractionCacheMaxBytes < 0) {
+                        println("Invalid -extraction-cache-size argument '" + value + "', expected a size ie 500m or 10g");
+                        return false;
+                    }
+                } else if (arg.equals("-longest-first")) {
+                    longestFirst = true;
+                } else if (arg.startsWith("-job-stats=")) {
+                    jobStatsPath = arg.substring("-job-stats=".length());
+                } else if (arg.equals("-progress")) {
+                    progressToConsole = true;
+                } else if (arg.startsWith("-progress=")) {
+                    String value = arg.substring("-progress=".length());
+                    try {
+                        progressIntervalSeconds = Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        progressIntervalSeconds = -1;
+                    }
+                    if (progressIntervalSeconds < 1) {
+                        println("Invalid -progress argument '" + value + "', expected a number of seconds");
+                        return false;
+                    }
+                    progressToConsole = true;
+                } else if (arg.startsWith("-progress-file=")) {
+                    progressFilePath = arg.substring("-progress-file=".length());
+                } else if (arg.startsWith("-perf-baseline=")) {
+                    perfBaselinePath = arg.substring("-perf-baseline=".length());
+                } else if (arg.equals("-perf-baseline-update")) {
+                    perfBaselineUpdate = true;
+                } else if (arg.startsWith("-perf-tolerance=")) {
+                    String value = arg.substring("-perf-tolerance=".length());
+                    try {
+                        perfTolerancePercent = Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        perfTolerancePercent = -1;
+                    }
+                    if (perfTolerancePercent < 0) {
+                        println("Invalid -perf-tolerance argument '" + value + "', expected a percentage ie 20");
+                        return false;
+                    }
+                } else if (arg.startsWith("-journal=")) {
+                    journalPath = arg.substring("-journal=".length());
+                } else if (arg.equals("-resume")) {
+                    resumeRun = true;
                 } else if (arg.startsWith("-validation-server=")) {
                     String[] parts = arg.split("=");
                     testUrlPath = parts[1];
+                } else if (arg.startsWith("-probe-cache=")) {
+                    probeCachePath = arg.substring("-probe-cache=".length());
+                } else if (arg.startsWith("-probe-cache-ttl=")) {
+                    String value = arg.substring("-probe-cache-ttl=".length());
+                    try {
+                        probeCacheTtlSeconds = Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        probeCacheTtlSeconds = -1;
+                    }
+                    if (probeCacheTtlSeconds < 0) {
+                        println("Invalid -probe-cache-ttl argument '" + value + "', expected a number of seconds");
+                        return false;
+                    }
+                } else if (arg.equals("-probe-cache-refresh")) {
+                    probeCacheRefresh = true;
                 } else if (arg.startsWith("-validation-server-auth=")) {
                     arg = arg.substring("-validation-server-auth=".length());
                     String[] parts = arg.split(";");
@@ -382,6 +991,54 @@ public class EndpointMain {
         return false;
     }
 
+    static List<FrameworkType> detectFrameworks(File projectRoot) {
+        if (fastFrameworkDetection) {
+            List<FrameworkType> frameworkTypes = FastFrameworkDetector.detect(projectRoot);
+            if (frameworkTypes != null) {
+                return frameworkTypes;
+            }
+        }
+        return FrameworkCalculator.getTypes(projectRoot);
+    }
+
+    //  Parses sizes such as 4096, 500k, 500m or 10g, returning -1 if the size is invalid
+    static long parseByteSize(String size) {
+        Matcher matcher = Pattern.compile("(\\d+)([kKmMgG]?)").matcher(size);
+        if (!matcher.matches()) {
+            return -1;
+        }
+
+        long numBytes = Long.parseLong(matcher.group(1));
+        switch (matcher.group(2).toLowerCase()) {
+            case "g": numBytes *= 1024;
+            case "m": numBytes *= 1024;
+            case "k": numBytes *= 1024;
+        }
+        return numBytes;
+    }
+
+    private static SourceFilter getGlobalSourceFilter() {
+        return sourceFilter.isEmpty() ? null : sourceFilter.copy();
+    }
+
+    //  Worker processes get the same flags as this process, minus the scanned folder and those that only apply
+    //  to the whole run
+    static List<String> getWorkerArguments() {
+        List<String> workerArgs = list();
+        workerArgs.add("-worker");
+        for (String arg : originalArgs) {
+            if (!arg.startsWith("-") || arg.equals("-worker") || arg.startsWith("-path-list-file=") || arg.startsWith("-discover=") || arg.startsWith("-workers=") ||
+                arg.startsWith("-worker-heap=") || arg.startsWith("-output-file=") || arg.startsWith("-build-index=") ||
+                arg.startsWith("-access-log=") || arg.startsWith("-journal=") || arg.equals("-resume") || arg.equals("-watch") ||
+                arg.startsWith("-include=") || arg.startsWith("-exclude=") || arg.equals("-longest-first") || arg.startsWith("-job-stats=") ||
+                arg.startsWith("-progress") || arg.startsWith("-perf-")) {
+                continue;
+            }
+            workerArgs.add(arg);
+        }
+        return workerArgs;
+    }
+
     static void printError() {
         println("The first argument should be a valid file path to scan. Run with -help to see available flags and usage.");
     }
@@ -396,92 +1053,632 @@ public class EndpointMain {
         }
     }
 
+    //  Prints the endpoint followed by all of its variants, depth-first, and returns the number of lines printed
     private static int printEndpointWithVariants(int i, int currentDepth, Endpoint endpoint) {
 
-        int numPrinted = 1;
+        int numPrinted = 0;
+
+        Deque<Endpoint> remaining = new ArrayDeque<>();
+        Deque<Integer> remainingDepths = new ArrayDeque<>();
+        remaining.push(endpoint);
+        remainingDepths.push(currentDepth);
 
         StringBuilder line = new StringBuilder();
+        while (!remaining.isEmpty()) {
+            Endpoint current = remaining.pop();
+            int depth = remainingDepths.pop();
 
-        line.append('[');
-        line.append(i);
-        line.append("] ");
+            line.setLength(0);
 
-        for (int s = 0; s < currentDepth * 2; s++) {
-            line.append('-');
+            line.append('[');
+            line.append(i + numPrinted);
+            line.append("] ");
+
+            for (int s = 0; s < depth * 2; s++) {
+                line.append('-');
+            }
+            if (depth > 0) {
+                line.append(' ');
+            }
+
+            line.append(current.getHttpMethod());
+            line.append(": ");
+            line.append(current.getUrlPath());
+
+            line.append(" (");
+            line.append(current.getVariants().size());
+            line.append(" variants): PARAMETERS=");
+            line.append(current.getParameters());
+
+            line.append("; FILE=");
+            line.append(current.getFilePath());
+
+            line.append(" (lines '");
+            line.append(current.getStartingLineNumber());
+            line.append("'-'");
+            line.append(current.getEndingLineNumber());
+            line.append("')");
+
+            println(line.toString());
+            numPrinted++;
+
+            //  Pushed in reverse so that variants are printed in their original order
+            if (!current.getVariants().isEmpty()) {
+                List<Endpoint> variants = new ArrayList<>(current.getVariants());
+                for (int v = variants.size() - 1; v >= 0; v--) {
+                    remaining.push(variants.get(v));
+                    remainingDepths.push(depth + 1);
+                }
+            }
         }
-        if (currentDepth > 0) {
-            line.append(' ');
+
+        return numPrinted;
+    }
+
+    private static void lookupUrls() {
+        RouteIndexFile.Reader index;
+        try {
+            index = RouteIndexFile.open(new File(lookupIndexPath));
+        } catch (IOException e) {
+            e.printStackTrace();
+            println("Unable to open route index at '" + lookupIndexPath + "'");
+            return;
         }
 
-        line.append(endpoint.getHttpMethod());
-        line.append(": ");
-        line.append(endpoint.getUrlPath());
+        int numUrls = 0;
+        int numMatched = 0;
+        long lookupNanos = 0;
 
-        line.append(" (");
-        line.append(endpoint.getVariants().size());
-        line.append(" variants): PARAMETERS=");
-        line.append(endpoint.getParameters());
+        //  Not closed, since that would close System.out before the statistics are printed
+        PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+        try (BufferedReader reader = new BufferedReader(lookupUrlsFile != null ?
+                    new FileReader(lookupUrlsFile) : new InputStreamReader(System.in))) {
 
-        line.append("; FILE=");
-        line.append(endpoint.getFilePath());
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
 
-        line.append(" (lines '");
-        line.append(endpoint.getStartingLineNumber());
-        line.append("'-'");
-        line.append(endpoint.getEndingLineNumber());
-        line.append("')");
+                String httpMethod = null;
+                String url = line;
+                int space = line.indexOf(' ');
+                if (space > 0) {
+                    httpMethod = line.substring(0, space);
+                    url = line.substring(space + 1).trim();
+                }
 
-        println(line.toString());
+                long start = System.nanoTime();
+                List<RouteTrie.Route> matchingRoutes = index.lookup(httpMethod, url);
+                lookupNanos += System.nanoTime() - start;
+
+                ++numUrls;
+                if (matchingRoutes.isEmpty()) {
+                    writer.println(line + " -> (no match)");
+                } else {
+                    ++numMatched;
+                    for (RouteTrie.Route route : matchingRoutes) {
+                        writer.println(line + " -> " + route);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            println("Unable to read URLs to look up");
+        } finally {
+            writer.flush();
+        }
 
-        for (Endpoint variant : endpoint.getVariants()) {
-            numPrinted += printEndpointWithVariants(i + numPrinted, currentDepth + 1, variant);
+        println(numMatched + "/" + numUrls + " URLs matched " + index.getRouteCount() + " indexed endpoints");
+        if (numUrls > 0) {
+            println("Average lookup time: " + (lookupNanos / numUrls / 1000.0) + "us per URL");
         }
+    }
 
-        return numPrinted;
+    private static void correlateAccessLogs() {
+        AccessLogCorrelator correlator = new AccessLogCorrelator(routeIndex);
+        AccessLogCorrelator.Result result = null;
+
+        long startTime = System.currentTimeMillis();
+        for (String accessLogPath : accessLogPaths) {
+            printReport("Correlating access log '" + accessLogPath + "' with detected endpoints");
+            try {
+                AccessLogCorrelator.Result logResult = correlator.correlate(new File(accessLogPath));
+                if (result == null) {
+                    result = logResult;
+                } else {
+                    AccessLogCorrelator.merge(result, logResult);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                printReport("Unable to read access log at '" + accessLogPath + "'");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        if (result == null) {
+            return;
+        }
+
+        printReport(PRINTLN_SEPARATOR);
+        printReport("Read " + result.numLines + " access log lines with " + result.numRequests + " requests in " + (System.currentTimeMillis() - startTime) + "ms");
+        if (result.numTruncatedLines > 0) {
+            printReport(result.numTruncatedLines + " lines crossing a chunk boundary were longer than " +
+                AccessLogCorrelator.LINE_OVERLAP + " bytes and were only read up to that length");
+        }
+        printReport(result.numMatchedRequests + "/" + result.numRequests + " requests matched a detected endpoint");
+
+        List<RouteTrie.Route> neverHit = list();
+        printReport("Endpoint hits:");
+        for (RouteTrie.Route route : routeIndex.getRoutes()) {
+            long hits = result.hitsPerRoute.get(route);
+            if (hits == 0) {
+                neverHit.add(route);
+            } else {
+                printReport("[" + hits + "] " + route);
+            }
+        }
+
+        printReport(neverHit.size() + "/" + routeIndex.getRoutes().size() + " endpoints were never hit:");
+        for (RouteTrie.Route route : neverHit) {
+            printReport("--- " + route);
+        }
+
+        List<Map.Entry<String, Long>> unmatched = new ArrayList<>(result.unmatchedUrls.entrySet());
+        Collections.sort(unmatched, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+                return b.getValue().compareTo(a.getValue());
+            }
+        });
+
+        if (result.numOtherUnmatchedRequests > 0) {
+            printReport("More than " + unmatched.size() + " distinct URLs did not match any detected endpoint, " +
+                result.numOtherUnmatchedRequests + " requests for URLs past the first " + unmatched.size() + " were not counted by URL");
+        } else {
+            printReport(unmatched.size() + " distinct URLs did not match any detected endpoint");
+        }
+        if (unmatched.size() > AccessLogCorrelator.MAX_REPORTED_UNMATCHED_URLS) {
+            printReport("The " + AccessLogCorrelator.MAX_REPORTED_UNMATCHED_URLS + " most requested:");
+            unmatched = unmatched.subList(0, AccessLogCorrelator.MAX_REPORTED_UNMATCHED_URLS);
+        }
+        for (Map.Entry<String, Long> entry : unmatched) {
+            printReport("[" + entry.getValue() + "] " + entry.getKey());
+        }
+    }
+
+    private static void dispatchJob(EndpointJob job) {
+        if (runJournal != null) {
+            RunJournal.Entry entry = runJournal.getCompletedEntry(job);
+            if (entry != null && restoreJob(job, entry)) {
+                return;
+            }
+        }
+
+        if (workerPool != null) {
+            workerPool.submit(job);
+        } else {
+            runJob(job);
+        }
+    }
+
+    private static void runJob(EndpointJob job) {
+        println("Beginning endpoint detection for '" + job.sourceCodePath.getAbsolutePath() + "' with " + job.frameworkTypes.size() + " framework types");
+        for (FrameworkType subType : job.frameworkTypes) {
+            println("Using framework=" + subType);
+        }
+
+        //  Peak heap isn't measured here, as other threads may allocate at the same time. Only -workers measure it
+        job.timing.start();
+        reportJobStarted(job);
+        List<Endpoint> generatedEndpoints = projectTimeoutSeconds > 0 ? detectEndpointsWithTimeout(job) : detectEndpoints(job);
+        job.timing.finish();
+
+        if (generatedEndpoints == null) {
+            println("Endpoint detection for '" + job.sourceCodePath.getAbsolutePath() + "' timed out after " + projectTimeoutSeconds + "s");
+            println(PRINTLN_SEPARATOR);
+            //  Whatever the abandoned detection thread counted is left out of the totals
+            recordTimeout(job, job.timing.toString(), new JobCounters());
+            return;
+        }
+
+        //  Only applied here, once detection has finished, so that jobs never add to the totals from other threads
+        JobCounters counters = job.counters;
+        counters.addToTotals();
+
+        println("Finished endpoint detection for '" + job.sourceCodePath.getAbsolutePath() + "'");
+        println(PRINTLN_SEPARATOR);
+
+        recordResult(job, generatedEndpoints, counters);
+    }
+
+    //  Applies the results of a job completed by an earlier, interrupted run with the same -journal. Returns false
+    //  if they can't be loaded, in which case the job is scanned again
+    private static boolean restoreJob(final EndpointJob job, RunJournal.Entry entry) {
+        final List<Endpoint> endpoints;
+        try {
+            endpoints = runJournal.loadEndpoints(entry);
+        } catch (IOException e) {
+            e.printStackTrace();
+            println("Unable to load journaled results for '" + job.sourceCodePath.getAbsolutePath() + "', scanning it again");
+            return false;
+        }
+
+        println("Using journaled results for '" + job.sourceCodePath.getAbsolutePath() + "'");
+        job.isReused = true;
+        entry.counters.addToTotals();
+        reportJobFinished(job, endpoints.size(), false);
+        if (workerPool != null) {
+            //  Takes its place among the results of the workers, which are added in job order
+            workerPool.submitCompleted(job, new Runnable() {
+                @Override
+                public void run() {
+                    addResult(job, endpoints);
+                }
+            });
+        } else {
+            addResult(job, endpoints);
+        }
+        return true;
+    }
+
+    static synchronized void recordResult(EndpointJob job, List<Endpoint> generatedEndpoints, JobCounters counters) {
+        reportJobFinished(job, generatedEndpoints.size(), false);
+        storeResult(job, generatedEndpoints, counters);
+    }
+
+    static synchronized void recordTimeout(EndpointJob job, String phaseTimings, JobCounters counters) {
+        reportJobFinished(job, 0, true);
+        storeTimeout(job, phaseTimings, counters);
+    }
+
+    static synchronized void recordFailure(EndpointJob job, String reason, JobCounters counters) {
+        reportJobFinished(job, 0, true);
+        storeFailure(job, reason, counters);
+    }
+
+    //  Adds the outcome of a job to the output and the journal. WorkerPool calls these separately from
+    //  reportJobFinished, in the order the jobs were submitted rather than the order they finished in
+    static synchronized void storeResult(EndpointJob job, List<Endpoint> generatedEndpoints, JobCounters counters) {
+        addResult(job, generatedEndpoints);
+        if (runJournal != null) {
+            runJournal.append(job, RunJournal.COMPLETED, generatedEndpoints, counters, null);
+        }
+    }
+
+    static synchronized void storeTimeout(EndpointJob job, String phaseTimings, JobCounters counters) {
+        addTimeout(job, phaseTimings);
+        if (runJournal != null) {
+            runJournal.append(job, RunJournal.TIMED_OUT, null, counters, phaseTimings);
+        }
+    }
+
+    static synchronized void storeFailure(EndpointJob job, String reason, JobCounters counters) {
+        addFailure(job, reason);
+        if (runJournal != null) {
+            runJournal.append(job, RunJournal.FAILED, null, counters, reason);
+        }
+    }
+
+    static void reportJobStarted(EndpointJob job) {
+        if (progressReporter != null) {
+            progressReporter.jobStarted(job);
+        }
+    }
+
+    static void reportJobFinished(EndpointJob job, int numEndpoints, boolean isFailed) {
+        //  Reused results took no time to scan, which would make the job look cheap to later runs
+        if (jobScheduler != null && !job.isReused) {
+            jobScheduler.recordDuration(job, job.timing.getElapsedMillis());
+        }
+        if (progressReporter != null) {
+            progressReporter.jobFinished(job, numEndpoints, isFailed);
+        }
+        if (perfBaseline != null) {
+            perfBaseline.record(job, numEndpoints, !isFailed);
+        }
+    }
+
+    private static synchronized void addResult(EndpointJob job, List<Endpoint> generatedEndpoints) {
+        ++numProjects;
+
+        if (!generatedEndpoints.isEmpty()) {
+            ++numProjectsWithEndpoints;
+
+            if (deduplicatedOutput != null) {
+                //  Only the distinct endpoints are kept, instead of every project's copy of them
+                deduplicatedOutput.add(job.sourceCodePath.getAbsolutePath(), getEndpointInfo(generatedEndpoints));
+            } else if (printFormat == SIMPLE_JSON) {
+                //  Only the Endpoint.Info fields are kept, in a columnar layout, instead of each project's endpoint graphs
+                endpointStore.add(getEndpointInfo(generatedEndpoints));
+            } else if (printFormat == FULL_JSON) {
+                allEndpoints.addAll(generatedEndpoints);
+            }
+        } else {
+            projectsMissingEndpoints.add(job.sourceCodePath.getAbsolutePath());
+        }
+
+        if (routeIndex != null) {
+            routeIndex.addAll(job.sourceCodePath.getAbsolutePath(), generatedEndpoints);
+        }
+    }
+
+    private static synchronized void addTimeout(EndpointJob job, String phaseTimings) {
+        ++numProjects;
+        projectsTimedOut.add(job.sourceCodePath.getAbsolutePath() + " (phases: " + phaseTimings + ")");
+    }
+
+    private static synchronized void addFailure(EndpointJob job, String reason) {
+        ++numProjects;
+        projectsFailed.add(job.sourceCodePath.getAbsolutePath() + " (" + reason + ")");
+    }
+
+    //  Runs detection on a separate thread and abandons it after -project-timeout, returning null in that case.
+    //  The detection thread is interrupted, and is a daemon so that it can't keep the process alive if HAM
+    //  doesn't respond to the interrupt. The job's helper threads are stopped, but a parser that ignores the
+    //  interrupt keeps using CPU and heap until it finishes. Only -workers can stop it, by replacing the worker.
+    static List<Endpoint> detectEndpointsWithTimeout(final EndpointJob job) {
+        final AtomicReference<Thread> detectionThread = new AtomicReference<>();
+        ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            runnable.run();
+                        } finally {
+                            abandonedThreads.remove(Thread.currentThread());
+                        }
+                    }
+                }, "endpoint-detection");
+                thread.setDaemon(true);
+                detectionThread.set(thread);
+                return thread;
+            }
+        });
+
+        Future<List<Endpoint>> result = executor.submit(new Callable<List<Endpoint>>() {
+            @Override
+            public List<Endpoint> call() {
+                return detectEndpoints(job);
+            }
+        });
+
+        try {
+            return result.get(projectTimeoutSeconds, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            abandon(detectionThread.get());
+            result.cancel(true);
+            job.cancel();
+            return null;
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            abandon(detectionThread.get());
+            result.cancel(true);
+            job.cancel();
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void abandon(Thread detectionThread) {
+        if (detectionThread != null) {
+            abandonedThreads.add(detectionThread);
+        }
     }
 
-    private static List<Endpoint> listEndpoints(File rootFile, Collection<FrameworkType> frameworkTypes) {
+    static List<Endpoint> detectEndpoints(EndpointJob job) {
+        ProjectChangeCache.ProjectState state = null;
+        List<Endpoint> previousEndpoints = null;
+        if (changeCache != null) {
+            state = changeCache.computeState(job);
+            previousEndpoints = changeCache.loadIfUnchanged(state);
+            if (previousEndpoints != null) {
+                println("No changes since the last run (HEAD=" + state.headCommit + "), reusing " + previousEndpoints.size() + " previously detected endpoints");
+                //  The stats of the previous run are replayed, as listEndpoints isn't run to count them again
+                job.counters = state.counters;
+                job.isReused = true;
+                println("Previously generated " + job.counters.distinctEndpoints + " distinct endpoints and " +
+                    job.counters.distinctParameters + " distinct parameters");
+            }
+        }
+
+        List<Endpoint> endpoints = previousEndpoints;
+        if (endpoints == null) {
+            endpoints = listEndpoints(job);
+
+            //  Partial results from a timed out job must not be cached
+            if (Thread.currentThread().isInterrupted()) {
+                return endpoints;
+            }
+
+            if (changeCache != null) {
+                changeCache.store(state, endpoints, job.counters);
+            }
+        }
+
+        return endpoints;
+    }
+
+    //  The extracted and pruned copies of a job's source, which are released once the job is done
+    private static class ScanFolders {
+        TemporaryExtractionLocation zipExtractor;
+        ExtractionCache.Lease extractionLease;
+        SourceFilter.PrunedTree prunedTree;
+
+        void release() {
+            if (prunedTree != null) {
+                prunedTree.release();
+            }
+            if (zipExtractor != null) {
+                zipExtractor.release();
+            }
+            if (extractionLease != null) {
+                extractionLease.release();
+            }
+        }
+    }
+
+    private static List<Endpoint> listEndpoints(EndpointJob job) {
+        ScanFolders folders = new ScanFolders();
+        try {
+            return listEndpoints(job, folders);
+        } finally {
+            //  Also when the parsers throw, so that temporary copies and cache entries aren't leaked
+            folders.release();
+        }
+    }
+
+    private static List<Endpoint> listEndpoints(EndpointJob job, ScanFolders folders) {
+        File rootFile = job.sourceCodePath;
+        //  Copied so that detected types don't change the job, which is used as a key by -skip-unchanged and -journal
+        Collection<FrameworkType> frameworkTypes = new ArrayList<>(job.frameworkTypes);
         List<Endpoint> endpoints = list();
 
         File sourceRootFile = rootFile;
-        TemporaryExtractionLocation zipExtractor = null;
         if (TemporaryExtractionLocation.isArchive(rootFile.getAbsolutePath())) {
-            zipExtractor = new TemporaryExtractionLocation(rootFile.getAbsolutePath());
-            zipExtractor.extract();
+            job.timing.startPhase("extract");
+            if (extractionCache != null) {
+                try {
+                    folders.extractionLease = extractionCache.acquire(rootFile);
+                    sourceRootFile = folders.extractionLease.root;
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    println("Unable to use -extraction-cache for '" + rootFile.getAbsolutePath() + "', extracting to a temporary folder");
+                }
+            }
+
+            if (folders.extractionLease == null) {
+                folders.zipExtractor = new TemporaryExtractionLocation(rootFile.getAbsolutePath());
+                folders.zipExtractor.extract();
+
+                sourceRootFile = folders.zipExtractor.getOutputPath();
+            }
+        }
+
+        if (job.sourceFilter != null) {
+            job.timing.startPhase("prune");
+            try {
+                //  Cached extractions are shared with other runs, so they are staged rather than pruned in place
+                folders.prunedTree = folders.zipExtractor != null ?
+                    job.sourceFilter.pruneInPlace(sourceRootFile) :
+                    job.sourceFilter.stage(sourceRootFile);
+                sourceRootFile = folders.prunedTree.root;
+                println("Skipped " + folders.prunedTree.numSkippedFiles + " files (" + folders.prunedTree.numSkippedBytes + " bytes) excluded by " + job.sourceFilter);
+            } catch (IOException e) {
+                e.printStackTrace();
+                println("Unable to apply -include/-exclude to '" + rootFile.getAbsolutePath() + "', scanning all files");
+            }
+        }
+
+        if (measureJobSizes && job.size == null) {
+            //  Archives are measured by their compressed size, as JobScheduler does, which doesn't need a walk
+            if (folders.prunedTree != null && folders.zipExtractor == null && folders.extractionLease == null) {
+                job.size = new ProjectSizeEstimator.ProjectSize();
+                job.size.numFiles = folders.prunedTree.numFiles;
+                job.size.numBytes = folders.prunedTree.numBytes;
+            } else {
+                job.timing.startPhase("measure");
+                job.size = ProjectSizeEstimator.estimate(rootFile, job.sourceFilter);
+            }
+        }
 
-            sourceRootFile = zipExtractor.getOutputPath();
+        List<File> subRoots = null;
+        if (splitThreads > 0) {
+            job.timing.startPhase("find sub-projects");
+            List<File> filesOutside = list();
+            subRoots = SubprojectSplitter.findSubRoots(sourceRootFile, filesOutside);
+            if (subRoots.size() < 2) {
+                println("Found " + subRoots.size() + " sub-projects in '" + rootFile.getAbsolutePath() + "', scanning it as one project");
+                subRoots = null;
+            } else {
+                println("Found " + subRoots.size() + " sub-projects in '" + rootFile.getAbsolutePath() + "', scanning them on up to " +
+                    splitThreads + " worker processes");
+                if (!filesOutside.isEmpty()) {
+                    printFilesOutsideSubRoots(sourceRootFile, filesOutside);
+                }
+            }
         }
 
-        if (frameworkTypes.size() == 1 && frameworkTypes.iterator().next() == FrameworkType.DETECT) {
-            frameworkTypes.addAll(FrameworkCalculator.getTypes(rootFile));
+        //  Sub-projects have their frameworks detected separately
+        if (subRoots == null && frameworkTypes.size() == 1 && frameworkTypes.iterator().next() == FrameworkType.DETECT) {
+            job.timing.startPhase("detect frameworks");
+            frameworkTypes.addAll(detectFrameworks(rootFile));
+        }
+
+        SourcePrefetcher prefetcher = null;
+        Runnable stopPrefetching = null;
+        if (prefetchThreads > 0 && subRoots == null) {
+            final SourcePrefetcher startedPrefetcher = new SourcePrefetcher(prefetchThreads);
+            startedPrefetcher.start(sourceRootFile, frameworkTypes);
+            prefetcher = startedPrefetcher;
+            //  The parsers may not stop when the job is abandoned, but the readers at least don't keep going
+            stopPrefetching = new Runnable() {
+                @Override
+                public void run() {
+                    startedPrefetcher.stop();
+                }
+            };
+            job.addCancellation(stopPrefetching);
         }
 
-        List<EndpointDatabase> databases = list();
-        for (FrameworkType frameworkType : frameworkTypes) {
-            EndpointDatabase database = EndpointDatabaseFactory.getDatabase(sourceRootFile, frameworkType);
-            if (database != null) {
-                databases.add(database);
+        try {
+            if (subRoots != null) {
+                job.timing.startPhase("parse sub-projects");
+                endpoints.addAll(new SubprojectSplitter(splitThreads).scan(sourceRootFile, subRoots, frameworkTypes));
             } else {
-                println("EndpointDatabaseFactory.getDatabase returned null for framework type " + frameworkType);
+                List<EndpointDatabase> databases = list();
+                for (FrameworkType frameworkType : frameworkTypes) {
+                    job.timing.startPhase("parse " + frameworkType);
+                    EndpointDatabase database = EndpointDatabaseFactory.getDatabase(sourceRootFile, frameworkType);
+                    if (database != null) {
+                        databases.add(database);
+                    } else {
+                        println("EndpointDatabaseFactory.getDatabase returned null for framework type " + frameworkType);
+                    }
+                }
+
+                for (EndpointDatabase db : databases) {
+                    job.timing.startPhase("generate endpoints");
+                    endpoints.addAll(db.generateEndpoints());
+                }
+            }
+        } finally {
+            if (prefetcher != null) {
+                job.removeCancellation(stopPrefetching);
+                printPrefetchStats(prefetcher.stop());
             }
         }
 
-        for (EndpointDatabase db : databases) {
-            endpoints.addAll(db.generateEndpoints());
+        //  The job was abandoned after exceeding -project-timeout, so don't report anything for it
+        if (Thread.currentThread().isInterrupted()) {
+            return endpoints;
         }
 
+        long detectionMillis = job.timing.getElapsedMillis();
+        job.timing.startPhase("report");
+
         //  Don't do any validation if we're just writing JSON without any output
         if (printFormat == FULL_JSON || printFormat == SIMPLE_JSON) {
             return endpoints;
         }
 
-        List<Endpoint> allEndpoints = EndpointUtil.flattenWithVariants(endpoints);
+        EndpointStats stats = new EndpointStats();
+        stats.acceptAll(endpoints);
+        List<Endpoint> allEndpoints = stats.getAllEndpoints();
 
-        int numPrimaryEndpoints = endpoints.size();
-        int numEndpoints = allEndpoints.size();
+        int numPrimaryEndpoints = stats.numDistinctEndpoints;
+        int numEndpoints = stats.numEndpoints;
 
-        totalDetectedEndpoints += numEndpoints;
-        totalDistinctEndpoints += numPrimaryEndpoints;
+        job.counters.detectedEndpoints += numEndpoints;
+        job.counters.distinctEndpoints += numPrimaryEndpoints;
 
         if (!simplePrint) {
             int i = 0;
@@ -501,14 +1698,33 @@ public class EndpointMain {
                                 " endpoints");
         }
 
-        if (EndpointValidation.validateSerialization(sourceRootFile, endpoints)) {
-            println("Successfully validated serialization for these endpoints");
-        } else {
-            println("Failed to validate serialization for at least one of these endpoints");
-        }
+        if (validation != Validation.NONE) {
+            job.timing.startPhase("validate");
+            long validationStart = System.currentTimeMillis();
 
-        if (!EndpointValidation.validateDuplicates(endpoints)) {
-        	numProjectsWithDuplicates++;
+            boolean isValid;
+            if (validation == Validation.SAMPLE) {
+                List<Endpoint> sample = EndpointValidation.sampleEndpoints(allEndpoints, validationSampleSize, validationSeed);
+                println("Validating a sample of " + sample.size() + "/" + allEndpoints.size() + " endpoints");
+                isValid = EndpointValidation.validateSerialization(sourceRootFile, sample, sample);
+            } else {
+                isValid = EndpointValidation.validateSerialization(sourceRootFile, endpoints, allEndpoints);
+            }
+
+            if (isValid) {
+                println("Successfully validated serialization for these endpoints");
+            } else {
+                println("Failed to validate serialization for at least one of these endpoints");
+            }
+
+            //  Only compares endpoints that share a URL, method, file and lines, so is cheap enough to always run fully
+            if (!EndpointValidation.validateDuplicateCandidates(stats.getDuplicateCandidates())) {
+                job.counters.projectsWithDuplicates++;
+            }
+
+            println("Validation (" + validation.name().toLowerCase() + ") took " + (System.currentTimeMillis() - validationStart) +
+                "ms, detection took " + detectionMillis + "ms");
+            job.timing.startPhase("report");
         }
 
         //  Run endpoint testing against a given server
@@ -517,15 +1733,9 @@ public class EndpointMain {
 
             println("Testing endpoints against server at: " + testUrlPath);
 
-            if (testCredentials != null) {
-                try {
-                    if (tester.authorize(testCredentials, null) < 400) {
-                        println("Successfully authenticated");
-                    }
-                } catch (IOException e) {
-                    println("Warning - unable to authorize against server");
-                }
-            }
+            //  Authentication is put off until the first probe that isn't cached
+            boolean isAuthorized = testCredentials == null;
+            int numCachedProbes = 0;
 
             List<Endpoint> successfulEndpoints = list();
             List<Endpoint> failedEndpoints = list();
@@ -542,22 +1752,48 @@ public class EndpointMain {
                     continue;
                 }
 
-                try {
-                    int responseCode = tester.test(endpoint, testCredentials);
-                    if (responseCode != 404) {
-                        successfulEndpoints.add(endpoint);
-                    } else {
-                        failedEndpoints.add(endpoint);
+                ProbeCache.ProbeResult result = probeCache != null ?
+                    probeCache.get(testUrlPath, endpoint.getHttpMethod(), endpoint.getUrlPath()) : null;
+
+                if (result != null) {
+                    numCachedProbes++;
+                } else {
+                    if (!isAuthorized) {
+                        try {
+                            if (tester.authorize(testCredentials, null) < 400) {
+                                println("Successfully authenticated");
+                            }
+                        } catch (IOException e) {
+                            println("Warning - unable to authorize against server");
+                        }
+                        isAuthorized = true;
                     }
-                } catch (IOException e) {
-                    //  Any non-404 error is considered "successful", since any other 4xx or 5xx may indicate
-                    //  that the endpoint exists but incorrect parameters were provided
-                    if (e.getMessage().contains("Server returned HTTP response code") && !e.getMessage().contains("code: 404")) {
-                        successfulEndpoints.add(endpoint);
-                    } else {
+
+                    try {
+                        result = tester.probe(endpoint, testCredentials);
+                    } catch (IOException e) {
+                        //  No response at all, which isn't cached since it may be a temporary network problem
                         failedEndpoints.add(endpoint);
+                        continue;
+                    }
+
+                    if (probeCache != null) {
+                        probeCache.put(testUrlPath, endpoint.getHttpMethod(), endpoint.getUrlPath(), result);
                     }
                 }
+
+                //  Any non-404 response is considered "successful", since any other 4xx or 5xx may indicate
+                //  that the endpoint exists but incorrect parameters were provided
+                if (result.responseCode != 404) {
+                    successfulEndpoints.add(endpoint);
+                } else {
+                    failedEndpoints.add(endpoint);
+                }
+            }
+
+            if (probeCache != null) {
+                probeCache.save();
+                println(numCachedProbes + " endpoint responses were reused from the probe cache");
             }
 
             for (Endpoint endpoint : failedEndpoints) {
@@ -568,77 +1804,85 @@ public class EndpointMain {
             println("(" + (allEndpoints.size() - successfulEndpoints.size() - failedEndpoints.size()) + " endpoints skipped since they had a wildcard in the URL)");
         }
 
-        int numMissingStartLine = 0;
-        int numMissingEndLine = 0;
-        int numSameLineRange = 0;
-        for (Endpoint endpoint : EndpointUtil.flattenWithVariants(endpoints)) {
-            if (endpoint.getStartingLineNumber() < 0) {
-                numMissingStartLine++;
-            }
-            if (endpoint.getEndingLineNumber() < 0) {
-                numMissingEndLine++;
-            }
-            if (endpoint.getStartingLineNumber() >= 0 && endpoint.getStartingLineNumber() == endpoint.getEndingLineNumber()) {
-                numSameLineRange++;
-            }
-        }
+        println(stats.numMissingStartLine + " endpoints were missing code start line");
+        println(stats.numMissingEndLine + " endpoints were missing code end line");
+        println(stats.numSameLineRange + " endpoints had the same code start and end line");
 
-        println(numMissingStartLine + " endpoints were missing code start line");
-        println(numMissingEndLine + " endpoints were missing code end line");
-        println(numSameLineRange + " endpoints had the same code start and end line");
+        job.counters.distinctParameters += stats.numDistinctParameters;
+        job.counters.detectedParameters += stats.numTotalParameters;
 
-        List<RouteParameter> distinctParameters = list();
-        for (Endpoint endpoint : endpoints) {
-            distinctParameters.addAll(endpoint.getParameters().values());
-        }
+        println("Generated " + stats.numDistinctParameters + " distinct parameters");
+        println("Generated " + stats.numTotalParameters + " total parameters");
 
-        int numTotalParameters = 0;
-        for (Endpoint endpoint : allEndpoints) {
-            numTotalParameters += endpoint.getParameters().size();
+        int numParams = stats.numDistinctParameters;
+        println("- " + stats.numHaveDataType + "/" + numParams + " have their data type");
+        println("- " + stats.numHaveAcceptedValues + "/" + numParams + " have a list of accepted values");
+        println("- " + stats.numHaveParamType + "/" + numParams + " have their parameter type");
+        for (RouteParameterType paramType : stats.typeOccurrences.keySet()) {
+            println("--- " + paramType.name() + ": " + stats.typeOccurrences.get(paramType));
         }
 
-        totalDistinctParameters += distinctParameters.size();
-        totalDetectedParameters += numTotalParameters;
-
-        println("Generated " + distinctParameters.size() + " distinct parameters");
-        println("Generated " + numTotalParameters + " total parameters");
-
-        Map<RouteParameterType, Integer> typeOccurrences = map();
-        int numHaveDataType = 0;
-        int numHaveParamType = 0;
-        int numHaveAcceptedValues = 0;
-        for (RouteParameter param : distinctParameters) {
-            if (param.getDataType() != null) {
-                ++numHaveDataType;
-            }
-            if (param.getParamType() != RouteParameterType.UNKNOWN) {
-                ++numHaveParamType;
-            }
-            if (param.getAcceptedValues() != null && param.getAcceptedValues().size() > 0) {
-                ++numHaveAcceptedValues;
-            }
+        return endpoints;
+    }
 
-            if (!typeOccurrences.containsKey(param.getParamType())) {
-                typeOccurrences.put(param.getParamType(), 1);
-            } else {
-                int o = typeOccurrences.get(param.getParamType());
-                typeOccurrences.put(param.getParamType(), o + 1);
+    //  Files that aren't in any sub-project, ie the sources of a parent module, aren't scanned by -split-subprojects
+    private static void printFilesOutsideSubRoots(File root, List<File> files) {
+        int numListed = Math.min(files.size(), 10);
+        StringBuilder paths = new StringBuilder();
+        for (int i = 0; i < numListed; i++) {
+            if (i > 0) {
+                paths.append(", ");
             }
+            paths.append(root.toPath().relativize(files.get(i).toPath()).toString().replace('\\', '/'));
         }
+        if (files.size() > numListed) {
+            paths.append(" and ").append(files.size() - numListed).append(" more");
+        }
+        println("Skipping " + files.size() + " files outside of the sub-projects: " + paths);
+    }
 
-        int numParams = distinctParameters.size();
-        println("- " + numHaveDataType + "/" + numParams + " have their data type");
-        println("- " + numHaveAcceptedValues + "/" + numParams + " have a list of accepted values");
-        println("- " + numHaveParamType + "/" + numParams + " have their parameter type");
-        for (RouteParameterType paramType : typeOccurrences.keySet()) {
-            println("--- " + paramType.name() + ": " + typeOccurrences.get(paramType));
+    private static void printPrefetchStats(SourcePrefetcher.Stats stats) {
+        String summary = "Prefetched " + stats.numFiles + "/" + stats.numQueuedFiles + " files (" +
+            FileUtils.byteCountToDisplaySize(stats.numBytes) + ") at " + String.format("%.1f", stats.getMegabytesPerSecond()) + " MB/s";
+        if (stats.completed) {
+            println(summary + ", finished " + stats.elapsedMillis + "ms after parsing started");
+        } else {
+            println(summary + ", parsing finished first after " + stats.elapsedMillis + "ms");
         }
+    }
 
-        if (zipExtractor != null) {
-            zipExtractor.release();
+    private static void printMakespan() {
+        long batchMillis = jobScheduler.getBatchMillis();
+        if (numWorkers <= 1) {
+            //  Run one after another the jobs take the same total time in any order, so there is nothing to compare
+            println("Batch finished after " + batchMillis + "ms with the longest jobs first, on 1 worker");
+            return;
         }
 
-        return endpoints;
+        long scheduledMillis = jobScheduler.simulateScheduledMakespan(numWorkers);
+        long inputOrderMillis = jobScheduler.simulateInputOrderMakespan(numWorkers);
+        long percentShorter = inputOrderMillis == 0 ? 0 : 100 - (100 * scheduledMillis / inputOrderMillis);
+
+        println("Batch finished after " + batchMillis + "ms with the longest jobs first, on " + numWorkers + " workers");
+        //  Both orders are simulated from the measured job times, so that they are compared like for like
+        println("- Simulated from the job times: " + scheduledMillis + "ms longest first, " + inputOrderMillis +
+            "ms in path list order (" + percentShorter + "% shorter)");
+    }
+
+    private static void printDeduplicationReport(long numBytes) {
+        long numUndeduplicatedBytes = deduplicatedOutput.numUndeduplicatedBytes;
+        long percentSaved = numUndeduplicatedBytes == 0 ? 0 : 100 - (100 * numBytes / numUndeduplicatedBytes);
+        String report = "Deduplicated " + deduplicatedOutput.numEndpoints + " endpoints from " +
+            deduplicatedOutput.getNumProjects() + " projects into " + deduplicatedOutput.getNumDistinctEndpoints() +
+            " distinct endpoints, " + numBytes + " bytes instead of " + numUndeduplicatedBytes + " (" + percentSaved + "% saved)";
+
+        printReport(report);
+    }
+
+    private static void printEndpointStoreReport() {
+        printReport("Held " + endpointStore.size() + " endpoints from " + endpointStore.getNumProjects() +
+            " projects in a columnar store of ~" + (endpointStore.estimateBytes() / 1024) + "KB (" +
+            endpointStore.getNumDistinctStrings() + " distinct strings, " + endpointStore.getNumEntries() + " parameter entries)");
     }
 
     private static Endpoint.Info[] getEndpointInfo(List<Endpoint> endpoints) {
@@ -0,0 +1,136 @@
+////////////////////////////////////////////////////////////////////////
+//
+//     Copyright (C) 2018 Applied Visions - http://securedecisions.com
+//
+//     The contents of this file are subject to the Mozilla Public License
+//     Version 2.0 (the "License"); you may not use this file except in
+//     compliance with the License. You may obtain a copy of the License at
+//     http://www.mozilla.org/MPL/
+//
+//     Software distributed under the License is distributed on an "AS IS"
+//     basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+//     License for the specific language governing rights and limitations
+//     under the License.
+//
+//     This material is based on research sponsored by the Department of Homeland
+//     Security (DHS) Science and Technology Directorate, Cyber Security Division
+//     (DHS S&T/CSD) via contract number HHSP233201600058C.
+//
+//     Contributor(s):
+//              Secure Decisions, a division of Applied Visions, Inc
+//
+////////////////////////////////////////////////////////////////////////
+
+package com.denimgroup.threadfix.cli.endpoints;
+
+import com.denimgroup.threadfix.data.entities.RouteParameter;
+import com.denimgroup.threadfix.data.entities.RouteParameterType;
+import com.denimgroup.threadfix.data.interfaces.Endpoint;
+
+import java.util.*;
+
+import static com.denimgroup.threadfix.CollectionUtils.list;
+import static com.denimgroup.threadfix.CollectionUtils.map;
+
+//  Collects the statistics reported for a project's endpoints in a single walk over the endpoints and their
+//  variants, which also produces the flattened endpoint list and groups possible duplicates for validation
+public class EndpointStats {
+
+    public int numDistinctEndpoints = 0;
+    public int numEndpoints = 0;
+
+    public int numMissingStartLine = 0;
+    public int numMissingEndLine = 0;
+    public int numSameLineRange = 0;
+
+    public int numDistinctParameters = 0;
+    public int numTotalParameters = 0;
+    public int numHaveDataType = 0;
+    public int numHaveParamType = 0;
+    public int numHaveAcceptedValues = 0;
+    public Map<RouteParameterType, Integer> typeOccurrences = map();
+
+    private final List<Endpoint> allEndpoints = list();
+    private final Map<String, List<Endpoint>> duplicateCandidates = new LinkedHashMap<>();
+
+    public void acceptAll(Collection<Endpoint> endpoints) {
+        Deque<Endpoint> remaining = new ArrayDeque<>();
+        for (Endpoint endpoint : endpoints) {
+            acceptDistinct(endpoint);
+
+            remaining.push(endpoint);
+            while (!remaining.isEmpty()) {
+                Endpoint current = remaining.pop();
+                accept(current);
+
+                //  Pushed in reverse so that variants are visited in the order printEndpointWithVariants prints them
+                List<Endpoint> variants = new ArrayList<>(current.getVariants());
+                for (int v = variants.size() - 1; v >= 0; v--) {
+                    remaining.push(variants.get(v));
+                }
+            }
+        }
+    }
+
+    //  The endpoints and all of their variants
+    public List<Endpoint> getAllEndpoints() {
+        return allEndpoints;
+    }
+
+    //  Groups of distinct endpoints with the same URL, method, file and lines, which may be duplicates
+    public List<List<Endpoint>> getDuplicateCandidates() {
+        List<List<Endpoint>> result = list();
+        for (List<Endpoint> group : duplicateCandidates.values()) {
+            if (group.size() > 1) {
+                result.add(group);
+            }
+        }
+        return result;
+    }
+
+    private void acceptDistinct(Endpoint endpoint) {
+        numDistinctEndpoints++;
+
+        String duplicateKey = EndpointValidation.getDuplicateKey(endpoint);
+        List<Endpoint> group = duplicateCandidates.get(duplicateKey);
+        if (group == null) {
+            group = list();
+            duplicateCandidates.put(duplicateKey, group);
+        }
+        group.add(endpoint);
+
+        for (RouteParameter param : endpoint.getParameters().values()) {
+            numDistinctParameters++;
+
+            if (param.getDataType() != null) {
+                ++numHaveDataType;
+            }
+            if (param.getParamType() != RouteParameterType.UNKNOWN) {
+                ++numHaveParamType;
+            }
+            if (param.getAcceptedValues() != null && param.getAcceptedValues().size() > 0) {
+                ++numHaveAcceptedValues;
+            }
+
+            Integer occurrences = typeOccurrences.get(param.getParamType());
+            typeOccurrences.put(param.getParamType(), occurrences == null ? 1 : occurrences + 1);
+        }
+    }
+
+    private void accept(Endpoint endpoint) {
+        numEndpoints++;
+        allEndpoints.add(endpoint);
+
+        if (endpoint.getStartingLineNumber() < 0) {
+            numMissingStartLine++;
+        }
+        if (endpoint.getEndingLineNumber() < 0) {
+            numMissingEndLine++;
+        }
+        if (endpoint.getStartingLineNumber() >= 0 && endpoint.getStartingLineNumber() == endpoint.getEndingLineNumber()) {
+            numSameLineRange++;
+        }
+
+        numTotalParameters += endpoint.getParameters().size();
+    }
+}
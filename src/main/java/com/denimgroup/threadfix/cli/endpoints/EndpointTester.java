@@ -29,6 +29,7 @@ import com.denimgroup.threadfix.data.interfaces.Endpoint;
 import com.denimgroup.threadfix.framework.util.PathUtil;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.*;
@@ -62,6 +63,32 @@ public class EndpointTester {
         return conn.getResponseCode();
     }
 
+    //  Like test, but returns the response code of error responses instead of throwing, and times the request.
+    //  Only throws if no response was received.
+    public ProbeCache.ProbeResult probe(Endpoint endpoint, Credentials credentials) throws IOException {
+        URL url = new URL(PathUtil.combine(this.basePath, endpoint.getUrlPath()));
+        HttpURLConnection conn = (HttpURLConnection)url.openConnection();
+        conn.setRequestMethod(endpoint.getHttpMethod());
+
+        if (credentials != null && credentials.authenticatedParameters != null) {
+            for (Map.Entry<String, String> header : credentials.authenticatedParameters.entrySet()) {
+                conn.setRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+
+        ProbeCache.ProbeResult result = new ProbeCache.ProbeResult();
+        result.probedAt = System.currentTimeMillis();
+        result.responseCode = conn.getResponseCode();
+        result.latencyMillis = System.currentTimeMillis() - result.probedAt;
+
+        //  Closing the body rather than disconnecting lets the connection be reused for the next probe
+        InputStream body = result.responseCode >= 400 ? conn.getErrorStream() : conn.getInputStream();
+        if (body != null) {
+            body.close();
+        }
+        return result;
+    }
+
     public int authorize(Credentials credentials, Endpoint endpoint) throws IOException {
         //  Get query settings
         String httpMethod = endpoint != null ? endpoint.getHttpMethod() : "POST";
@@ -89,7 +116,7 @@ public class EndpointTester {
                     return conn.getResponseCode();
                 }
             } catch (IOException e) {
-                System.out.println("Unable to authorize using best-match parameters:");
+                EndpointMain.output.println("Unable to authorize using best-match parameters:");
                 e.printStackTrace();
             }
         }
@@ -105,7 +132,7 @@ public class EndpointTester {
                 return conn.getResponseCode();
             }
         } catch (IOException e) {
-            System.out.println("Unable to authorize using all-forms parameters:");
+            EndpointMain.output.println("Unable to authorize using all-forms parameters:");
             e.printStackTrace();
         }
 
@@ -37,8 +37,12 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import static com.denimgroup.threadfix.CollectionUtils.list;
 
@@ -47,7 +51,11 @@ public class EndpointValidation {
     private static Logger logger = LogManager.getLogger(EndpointValidation.class);
 
     public static boolean validateSerialization(File sourceCodeFolder, List<Endpoint> endpoints) {
-        List<Endpoint> allEndpoints = EndpointUtil.flattenWithVariants(endpoints);
+        return validateSerialization(sourceCodeFolder, endpoints, EndpointUtil.flattenWithVariants(endpoints));
+    }
+
+    //  For callers that have already flattened the endpoints with their variants
+    public static boolean validateSerialization(File sourceCodeFolder, List<Endpoint> endpoints, List<Endpoint> allEndpoints) {
         List<String> allUrls = list();
 
         for (Endpoint endpoint : allEndpoints) {
@@ -196,15 +204,137 @@ public class EndpointValidation {
             EndpointStructure testStructure = new EndpointStructure();
             testStructure.acceptAllEndpoints(endpoints);
         } catch (Exception e) {
-            System.out.println("Failed to validate endpoint structure generation due to an exception: \n" + e);
+            EndpointMain.output.println("Failed to validate endpoint structure generation due to an exception: \n" + e);
         }
 
         return true;
     }
 
+    //  Picks up to sampleSize endpoints, split between the endpoint types (ie frameworks) in proportion to how
+    //  many endpoints each has, and with at least one of each as long as sampleSize allows it. The same seed
+    //  always picks the same endpoints.
+    public static List<Endpoint> sampleEndpoints(List<Endpoint> endpoints, int sampleSize, long seed) {
+        if (endpoints.size() <= sampleSize) {
+            return endpoints;
+        }
+
+        Map<Class<?>, List<Endpoint>> endpointsByType = new LinkedHashMap<>();
+        for (Endpoint endpoint : endpoints) {
+            List<Endpoint> sameType = endpointsByType.get(endpoint.getClass());
+            if (sameType == null) {
+                sameType = list();
+                endpointsByType.put(endpoint.getClass(), sameType);
+            }
+            sameType.add(endpoint);
+        }
+
+        List<List<Endpoint>> types = new ArrayList<>(endpointsByType.values());
+        int[] typeSampleSizes = allocateSample(types, endpoints.size(), sampleSize);
+
+        Random random = new Random(seed);
+        List<Endpoint> sample = list();
+        for (int i = 0; i < types.size(); i++) {
+            List<Endpoint> shuffled = new ArrayList<>(types.get(i));
+            Collections.shuffle(shuffled, random);
+            sample.addAll(shuffled.subList(0, typeSampleSizes[i]));
+        }
+        return sample;
+    }
+
+    //  Splits sampleSize between the types by the largest remainder method, so that the sizes add up to exactly
+    //  sampleSize. Types that got none are then given one each, taken from the types with the most.
+    private static int[] allocateSample(List<List<Endpoint>> types, int numEndpoints, int sampleSize) {
+        int[] sizes = new int[types.size()];
+        final double[] remainders = new double[types.size()];
+        List<Integer> byRemainder = list();
+        int numAllocated = 0;
+        for (int i = 0; i < types.size(); i++) {
+            double share = (double)sampleSize * types.get(i).size() / numEndpoints;
+            sizes[i] = (int)share;
+            remainders[i] = share - sizes[i];
+            numAllocated += sizes[i];
+            byRemainder.add(i);
+        }
+
+        //  Stable, so equal remainders go to the types seen first
+        Collections.sort(byRemainder, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(remainders[b], remainders[a]);
+            }
+        });
+        for (int i = 0; numAllocated < sampleSize; i++) {
+            sizes[byRemainder.get(i)]++;
+            numAllocated++;
+        }
+
+        for (int i = 0; i < sizes.length; i++) {
+            if (sizes[i] > 0) {
+                continue;
+            }
+            int largest = 0;
+            for (int j = 1; j < sizes.length; j++) {
+                if (sizes[j] > sizes[largest]) {
+                    largest = j;
+                }
+            }
+            if (sizes[largest] <= 1) {
+                //  Fewer places than types
+                break;
+            }
+            sizes[largest]--;
+            sizes[i]++;
+        }
+        return sizes;
+    }
+
     public static boolean validateDuplicates(Collection<Endpoint> endpoints) {
+        List<List<Endpoint>> duplicateEndpoints = list();
+        for (List<Endpoint> candidates : groupDuplicateCandidates(endpoints)) {
+            duplicateEndpoints.addAll(detectDuplicates(candidates));
+        }
+        return reportDuplicates(duplicateEndpoints);
+    }
+
+    //  For endpoints that were already grouped by getDuplicateKey, ie by EndpointStats
+    public static boolean validateDuplicateCandidates(List<List<Endpoint>> candidateGroups) {
+        List<List<Endpoint>> duplicateEndpoints = list();
+        for (List<Endpoint> candidates : candidateGroups) {
+            duplicateEndpoints.addAll(detectDuplicates(candidates));
+        }
+        return reportDuplicates(duplicateEndpoints);
+    }
+
+    //  Endpoints can only be duplicates if these values are the same, so only endpoints with the same key
+    //  need to be compared with each other
+    static String getDuplicateKey(Endpoint endpoint) {
+        return endpoint.getHttpMethod() + " " + endpoint.getUrlPath() + " " + endpoint.getFilePath() + " " +
+            endpoint.getStartingLineNumber() + "-" + endpoint.getEndingLineNumber();
+    }
+
+    private static List<List<Endpoint>> groupDuplicateCandidates(Collection<Endpoint> endpoints) {
+        Map<String, List<Endpoint>> groups = new LinkedHashMap<>();
+        for (Endpoint endpoint : endpoints) {
+            String key = getDuplicateKey(endpoint);
+            List<Endpoint> group = groups.get(key);
+            if (group == null) {
+                group = list();
+                groups.put(key, group);
+            }
+            group.add(endpoint);
+        }
+
+        List<List<Endpoint>> result = list();
+        for (List<Endpoint> group : groups.values()) {
+            if (group.size() > 1) {
+                result.add(group);
+            }
+        }
+        return result;
+    }
+
+    private static boolean reportDuplicates(List<List<Endpoint>> duplicateEndpoints) {
         boolean validated = true;
-        List<List<Endpoint>> duplicateEndpoints = detectDuplicates(endpoints);
         if (!duplicateEndpoints.isEmpty()) {
             logger.warn("Found " + duplicateEndpoints.size() + " duplicated endpoints:");
             for (List<Endpoint> duplicateSet : duplicateEndpoints) {
@@ -0,0 +1,259 @@
+////////////////////////////////////////////////////////////////////////
+//
+//     Copyright (C) 2018 Applied Visions - http://securedecisions.com
+//
+//     The contents of this file are subject to the Mozilla Public License
+//     Version 2.0 (the "License"); you may not use this file except in
+//     compliance with the License. You may obtain a copy of the License at
+//     http://www.mozilla.org/MPL/
+//
+//     Software distributed under the License is distributed on an "AS IS"
+//     basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+//     License for the specific language governing rights and limitations
+//     under the License.
+//
+//     This material is based on research sponsored by the Department of Homeland
+//     Security (DHS) Science and Technology Directorate, Cyber Security Division
+//     (DHS S&T/CSD) via contract number HHSP233201600058C.
+//
+//     Contributor(s):
+//              Secure Decisions, a division of Applied Visions, Inc
+//
+////////////////////////////////////////////////////////////////////////
+
+package com.denimgroup.threadfix.cli.endpoints;
+
+import com.denimgroup.threadfix.data.enums.FrameworkType;
+import com.denimgroup.threadfix.data.interfaces.Endpoint;
+import com.denimgroup.threadfix.framework.engine.full.EndpointDatabase;
+import com.denimgroup.threadfix.framework.engine.full.EndpointDatabaseFactory;
+import com.denimgroup.threadfix.framework.util.EndpointUtil;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static com.denimgroup.threadfix.CollectionUtils.list;
+import static com.denimgroup.threadfix.CollectionUtils.map;
+import static java.nio.file.StandardWatchEventKinds.*;
+
+//  Keeps re-detecting endpoints for a source folder as its files change, re-generating only the endpoint
+//  databases of frameworks affected by the changed files and printing the endpoints that were added or removed
+public class EndpointWatcher {
+
+    private static Logger logger = LogManager.getLogger(EndpointWatcher.class);
+
+    //  How long the source tree must be quiet before a burst of changes is processed
+    private static final long DEBOUNCE_MILLIS = 250;
+
+    private final File rootFolder;
+    private final Collection<FrameworkType> frameworkTypes;
+    private final Map<FrameworkType, Map<String, Endpoint>> endpointsByFramework = map();
+
+    public EndpointWatcher(File rootFolder, Collection<FrameworkType> frameworkTypes) {
+        this.rootFolder = rootFolder.getAbsoluteFile();
+        this.frameworkTypes = frameworkTypes;
+    }
+
+    public void watch() throws IOException, InterruptedException {
+        int numEndpoints = 0;
+        for (FrameworkType frameworkType : frameworkTypes) {
+            endpointsByFramework.put(frameworkType, generateEndpoints(frameworkType));
+            numEndpoints += endpointsByFramework.get(frameworkType).size();
+        }
+
+        EndpointMain.output.println("Detected " + numEndpoints + " endpoints, watching '" + rootFolder.getAbsolutePath() + "' for changes (Ctrl+C to stop)");
+
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            registerRecursive(watchService, rootFolder.toPath(), null);
+
+            while (true) {
+                WatchKey key = watchService.take();
+                Set<FrameworkType> affectedFrameworks = new HashSet<>();
+
+                //  Collect every event in the burst until the tree has been quiet for DEBOUNCE_MILLIS
+                while (key != null) {
+                    collectAffectedFrameworks(watchService, key, affectedFrameworks);
+                    key.reset();
+                    key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+
+                if (!affectedFrameworks.isEmpty()) {
+                    rescan(affectedFrameworks);
+                }
+            }
+        }
+    }
+
+    private void rescan(Set<FrameworkType> affectedFrameworks) {
+        long startTime = System.currentTimeMillis();
+
+        List<Endpoint> added = list();
+        List<Endpoint> removed = list();
+
+        for (FrameworkType frameworkType : affectedFrameworks) {
+            Map<String, Endpoint> previous = endpointsByFramework.get(frameworkType);
+            Map<String, Endpoint> current;
+            try {
+                current = generateEndpoints(frameworkType);
+            } catch (RuntimeException e) {
+                //  ie a half-saved file that the parser can't handle yet. The previous endpoints are kept until the
+                //  next change to the framework's files, rather than ending -watch
+                logger.warn("Failed to re-detect " + frameworkType + " endpoints", e);
+                EndpointMain.output.println("Unable to re-detect " + frameworkType + " endpoints (" + e + "), keeping the previous ones");
+                continue;
+            }
+
+            for (Map.Entry<String, Endpoint> entry : current.entrySet()) {
+                if (!previous.containsKey(entry.getKey())) {
+                    added.add(entry.getValue());
+                }
+            }
+            for (Map.Entry<String, Endpoint> entry : previous.entrySet()) {
+                if (!current.containsKey(entry.getKey())) {
+                    removed.add(entry.getValue());
+                }
+            }
+
+            endpointsByFramework.put(frameworkType, current);
+        }
+
+        long elapsed = System.currentTimeMillis() - startTime;
+
+        if (added.isEmpty() && removed.isEmpty()) {
+            EndpointMain.output.println("No endpoint changes (" + affectedFrameworks + ", " + elapsed + "ms)");
+            return;
+        }
+
+        EndpointMain.output.println("Endpoint changes (" + affectedFrameworks + ", " + elapsed + "ms):");
+        for (Endpoint endpoint : added) {
+            EndpointMain.output.println("+ " + describe(endpoint));
+        }
+        for (Endpoint endpoint : removed) {
+            EndpointMain.output.println("- " + describe(endpoint));
+        }
+    }
+
+    private Map<String, Endpoint> generateEndpoints(FrameworkType frameworkType) {
+        Map<String, Endpoint> result = new LinkedHashMap<>();
+
+        EndpointDatabase database = EndpointDatabaseFactory.getDatabase(rootFolder, frameworkType);
+        if (database == null) {
+            logger.warn("EndpointDatabaseFactory.getDatabase returned null for framework type " + frameworkType);
+            return result;
+        }
+
+        for (Endpoint endpoint : EndpointUtil.flattenWithVariants(database.generateEndpoints())) {
+            result.put(getEndpointKey(endpoint), endpoint);
+        }
+        return result;
+    }
+
+    private void collectAffectedFrameworks(WatchService watchService, WatchKey key, Set<FrameworkType> affectedFrameworks) {
+        Path dir = (Path)key.watchable();
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                //  Events were lost, so any framework may be affected
+                affectedFrameworks.addAll(frameworkTypes);
+                continue;
+            }
+
+            Path changed = dir.resolve((Path)event.context());
+
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(changed)) {
+                //  A new or moved in directory may already hold files, which were created before it was watched
+                //  and so have no events of their own
+                try {
+                    registerRecursive(watchService, changed, affectedFrameworks);
+                } catch (IOException e) {
+                    logger.warn("Unable to watch new directory " + changed, e);
+                    affectedFrameworks.addAll(frameworkTypes);
+                }
+            } else if (Files.isDirectory(changed) ||
+                event.kind() == ENTRY_DELETE && FilenameUtils.getExtension(changed.getFileName().toString()).isEmpty()) {
+                //  A deleted path without an extension may have been a directory, whose files can't be listed anymore
+                affectedFrameworks.addAll(frameworkTypes);
+            } else {
+                addFrameworksForFile(changed, affectedFrameworks);
+            }
+        }
+    }
+
+    private void addFrameworksForFile(Path file, Set<FrameworkType> affectedFrameworks) {
+        for (FrameworkType frameworkType : getFrameworksForFile(file)) {
+            if (frameworkTypes.contains(frameworkType)) {
+                affectedFrameworks.add(frameworkType);
+            }
+        }
+    }
+
+    //  Watches every directory below start. If affectedFrameworks is given, the frameworks of the files found are
+    //  added to it.
+    private void registerRecursive(final WatchService watchService, Path start, final Set<FrameworkType> affectedFrameworks) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (dir.getFileName() != null && dir.getFileName().toString().equals(".git")) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (affectedFrameworks != null) {
+                    addFrameworksForFile(file, affectedFrameworks);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    static List<FrameworkType> getFrameworksForFile(Path file) {
+        String extension = FilenameUtils.getExtension(file.getFileName().toString()).toLowerCase();
+        switch (extension) {
+            case "java":
+            case "jsp":
+            case "xml":
+            case "properties":
+                return list(FrameworkType.JSP, FrameworkType.SPRING_MVC, FrameworkType.STRUTS);
+
+            case "cs":
+            case "cshtml":
+            case "aspx":
+            case "ascx":
+            case "asax":
+            case "config":
+            case "csproj":
+                return list(FrameworkType.DOT_NET_MVC, FrameworkType.DOT_NET_WEB_FORMS);
+
+            case "py":
+                return list(FrameworkType.PYTHON);
+
+            case "rb":
+            case "erb":
+                return list(FrameworkType.RAILS);
+
+            default:
+                return list();
+        }
+    }
+
+    private static String getEndpointKey(Endpoint endpoint) {
+        return endpoint.getHttpMethod() + " " + endpoint.getUrlPath() + " " + endpoint.getFilePath() + " " +
+            new TreeSet<>(endpoint.getParameters().keySet());
+    }
+
+    private static String describe(Endpoint endpoint) {
+        return endpoint.getHttpMethod() + ": " + endpoint.getUrlPath() + " PARAMETERS=" + endpoint.getParameters().keySet() +
+            "; FILE=" + endpoint.getFilePath() + " (lines '" + endpoint.getStartingLineNumber() + "'-'" + endpoint.getEndingLineNumber() + "')";
+    }
+}
@@ -0,0 +1,467 @@
+////////////////////////////////////////////////////////////////////////
+//
+//     Copyright (C) 2018 Applied Visions - http://securedecisions.com
+//
+//     The contents of this file are subject to the Mozilla Public License
+//     Version 2.0 (the "License"); you may not use this file except in
+//     compliance with the License. You may obtain a copy of the License at
+//     http://www.mozilla.org/MPL/
+//
+//     Software distributed under the License is distributed on an "AS IS"
+//     basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+//     License for the specific language governing rights and limitations
+//     under the License.
+//
+//     This material is based on research sponsored by the Department of Homeland
+//     Security (DHS) Science and Technology Directorate, Cyber Security Division
+//     (DHS S&T/CSD) via contract number HHSP233201600058C.
+//
+//     Contributor(s):
+//              Secure Decisions, a division of Applied Visions, Inc
+//
+////////////////////////////////////////////////////////////////////////
+
+package com.denimgroup.threadfix.cli.endpoints;
+
+import com.denimgroup.threadfix.framework.engine.full.TemporaryExtractionLocation;
+import org.apache.commons.io.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.*;
+
+import static com.denimgroup.threadfix.CollectionUtils.list;
+import static com.denimgroup.threadfix.CollectionUtils.map;
+
+//  Keeps extracted archives in a directory keyed by the SHA-256 of the archive contents, so that an archive
+//  that was already extracted by this or an earlier run is reused instead of being decompressed again.
+//  Least recently used entries are deleted once the cache grows past its size limit. Layout:
+//
+//      <hash>/             the extracted archive
+//      <hash>.complete     marker holding the extracted size; its modification time is the last use
+//      <hash>.lock         locked shared while the entry is in use, and exclusively while it is extracted
+//      <hash>.partial/     extraction in progress
+//      cache.lock          held while checking for, publishing or evicting entries
+//
+//  File locks belong to the whole process, and closing any channel to a file can drop the process' other locks
+//  on it, so each lock file is only ever open once per process and the entries in use are tracked in memory.
+//  Locks are polled instead of waited on, since Linux detects lock deadlocks per process rather than per
+//  thread, and fails waits between the threads of two runs that aren't actually deadlocked.
+public class ExtractionCache {
+
+    private static Logger logger = LogManager.getLogger(ExtractionCache.class);
+
+    private static final long LOCK_POLL_MILLIS = 100;
+    private static final int MAX_ATTEMPTS = 3;
+
+    //  The extracted contents of an archive, which must be released once they are no longer needed
+    public class Lease {
+        public final File root;
+        private final String hash;
+        private boolean isReleased = false;
+
+        private Lease(File root, String hash) {
+            this.root = root;
+            this.hash = hash;
+        }
+
+        public void release() {
+            synchronized (ExtractionCache.this) {
+                if (!isReleased) {
+                    isReleased = true;
+                    releaseEntry(hash);
+                }
+            }
+        }
+    }
+
+    //  Shared by the threads of this process that need the same archive, and dropped once none of them do
+    private static class ExtractionMonitor {
+        int numUsers = 0;
+    }
+
+    private static class InUseEntry {
+        FileChannel lockChannel;
+        FileLock sharedLock;
+        int numLeases = 0;
+    }
+
+    private final File cacheDirectory;
+    private final long maxBytes;
+    private final Map<String, InUseEntry> entriesInUse = map();
+    private final Set<String> entriesBeingExtracted = new HashSet<>();
+    private final Map<String, ExtractionMonitor> extractionMonitors = map();
+
+    public ExtractionCache(File cacheDirectory, long maxBytes) {
+        this.cacheDirectory = cacheDirectory;
+        this.maxBytes = maxBytes;
+        if (!cacheDirectory.isDirectory()) {
+            cacheDirectory.mkdirs();
+        }
+    }
+
+    public Lease acquire(File archive) throws IOException {
+        String hash = hashContents(archive);
+        File entryDirectory = new File(cacheDirectory, hash);
+
+        //  Retried since another run can evict a finished entry, or briefly lock it, before it is used here
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            try (CacheLock cacheLock = lockCache()) {
+                if (tryUseExisting(hash)) {
+                    logger.info("Reusing the extraction of " + archive.getAbsolutePath() + " from " + entryDirectory.getAbsolutePath());
+                    //  Also applies a size limit that was lowered since the last run
+                    evict();
+                    return new Lease(entryDirectory, hash);
+                }
+            }
+
+            //  Extract while holding only the entry's lock, so other runs can use the rest of the cache meanwhile.
+            //  A run or thread that needs the same archive waits for the lock, and then finds the finished entry.
+            ExtractionMonitor monitor = getExtractionMonitor(hash);
+            try {
+                synchronized (monitor) {
+                    if (!startExtracting(hash)) {
+                        continue;
+                    }
+
+                    try (FileChannel lockChannel = FileChannel.open(getLockFile(hash).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                        pollLock(lockChannel, false);
+                        boolean isComplete = getCompleteFile(hash).isFile();
+                        long numBytes = isComplete ? 0 : extract(archive, hash);
+
+                        //  Published and used in one go, so that it can't be evicted in between
+                        try (CacheLock cacheLock = lockCache()) {
+                            if (!isComplete) {
+                                FileUtils.writeStringToFile(getCompleteFile(hash), Long.toString(numBytes), StandardCharsets.UTF_8);
+                            }
+                            lockChannel.close();
+                            finishExtracting(hash);
+
+                            if (tryUseExisting(hash)) {
+                                evict();
+                                return new Lease(entryDirectory, hash);
+                            }
+                        }
+                    } finally {
+                        finishExtracting(hash);
+                    }
+                }
+            } finally {
+                releaseExtractionMonitor(hash, monitor);
+            }
+        }
+
+        throw new IOException("Extraction of " + archive.getAbsolutePath() + " kept being removed from the cache");
+    }
+
+    //  Must be called while holding the cache lock
+    private synchronized boolean tryUseExisting(String hash) throws IOException {
+        File completeFile = getCompleteFile(hash);
+        if (!completeFile.isFile() || entriesBeingExtracted.contains(hash)) {
+            return false;
+        }
+
+        InUseEntry entry = entriesInUse.get(hash);
+        if (entry == null) {
+            FileChannel lockChannel = FileChannel.open(getLockFile(hash).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+            FileLock sharedLock = lockChannel.tryLock(0, Long.MAX_VALUE, true);
+            if (sharedLock == null) {
+                //  Another run is just finishing the extraction, so wait for it like on a miss
+                lockChannel.close();
+                return false;
+            }
+
+            entry = new InUseEntry();
+            entry.lockChannel = lockChannel;
+            entry.sharedLock = sharedLock;
+            entriesInUse.put(hash, entry);
+        }
+        entry.numLeases++;
+
+        completeFile.setLastModified(System.currentTimeMillis());
+        return true;
+    }
+
+    private synchronized void releaseEntry(String hash) {
+        InUseEntry entry = entriesInUse.get(hash);
+        if (entry != null && --entry.numLeases == 0) {
+            entriesInUse.remove(hash);
+            try {
+                entry.sharedLock.release();
+                entry.lockChannel.close();
+            } catch (IOException e) {
+                logger.warn("Unable to unlock cached extraction " + hash, e);
+            }
+        }
+    }
+
+    private synchronized ExtractionMonitor getExtractionMonitor(String hash) {
+        ExtractionMonitor monitor = extractionMonitors.get(hash);
+        if (monitor == null) {
+            monitor = new ExtractionMonitor();
+            extractionMonitors.put(hash, monitor);
+        }
+        monitor.numUsers++;
+        return monitor;
+    }
+
+    private synchronized void releaseExtractionMonitor(String hash, ExtractionMonitor monitor) {
+        if (--monitor.numUsers == 0) {
+            extractionMonitors.remove(hash);
+        }
+    }
+
+    //  Returns false if the entry is complete and in use by this process, so there's nothing to extract
+    private synchronized boolean startExtracting(String hash) {
+        if (entriesInUse.containsKey(hash)) {
+            return false;
+        }
+        entriesBeingExtracted.add(hash);
+        return true;
+    }
+
+    private synchronized void finishExtracting(String hash) {
+        entriesBeingExtracted.remove(hash);
+    }
+
+    //  Returns the size of the extracted files
+    private long extract(File archive, String hash) throws IOException {
+        File partialDirectory = new File(cacheDirectory, hash + ".partial");
+        FileUtils.deleteQuietly(partialDirectory);
+
+        TemporaryExtractionLocation extractor = new TemporaryExtractionLocation(archive.getAbsolutePath());
+        try {
+            if (!extractor.extract()) {
+                throw new IOException("Unable to extract " + archive.getAbsolutePath());
+            }
+            //  Renamed if the temp folder is on the same file system, otherwise copied
+            FileUtils.moveDirectory(extractor.getOutputPath(), partialDirectory);
+        } finally {
+            extractor.release();
+        }
+
+        long numBytes = ProjectSizeEstimator.estimate(partialDirectory).numBytes;
+
+        File entryDirectory = new File(cacheDirectory, hash);
+        FileUtils.deleteQuietly(entryDirectory);
+        if (!partialDirectory.renameTo(entryDirectory)) {
+            throw new IOException("Unable to move " + partialDirectory.getAbsolutePath() + " to " + entryDirectory.getAbsolutePath());
+        }
+        return numBytes;
+    }
+
+    //  Deletes least recently used entries that aren't in use until the cache fits in its size limit. Must be
+    //  called while holding the cache lock.
+    private void evict() {
+        sweepLeftovers();
+
+        File[] completeFiles = cacheDirectory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".complete");
+            }
+        });
+        if (completeFiles == null) {
+            return;
+        }
+
+        long totalBytes = 0;
+        Map<File, Long> entrySizes = map();
+        for (File completeFile : completeFiles) {
+            long numBytes = readSize(completeFile);
+            entrySizes.put(completeFile, numBytes);
+            totalBytes += numBytes;
+        }
+        if (totalBytes <= maxBytes) {
+            return;
+        }
+
+        List<File> leastRecentlyUsed = list();
+        Collections.addAll(leastRecentlyUsed, completeFiles);
+        Collections.sort(leastRecentlyUsed, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+
+        for (File completeFile : leastRecentlyUsed) {
+            if (totalBytes <= maxBytes) {
+                break;
+            }
+
+            String name = completeFile.getName();
+            String hash = name.substring(0, name.length() - ".complete".length());
+            if (tryDelete(hash)) {
+                totalBytes -= entrySizes.get(completeFile);
+            }
+        }
+    }
+
+    //  Deletes what runs that crashed while extracting or evicting left behind, ie <hash>.partial/ folders and
+    //  <hash>/ folders without a .complete marker, which would otherwise never be counted or removed. Entries
+    //  that another run is extracting are locked, so they are skipped. Must be called while holding the cache lock.
+    private void sweepLeftovers() {
+        File[] directories = cacheDirectory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isDirectory();
+            }
+        });
+        if (directories == null) {
+            return;
+        }
+
+        for (File directory : directories) {
+            String name = directory.getName();
+            String hash;
+            if (name.endsWith(".partial")) {
+                hash = name.substring(0, name.length() - ".partial".length());
+            } else if (name.matches("[0-9a-f]{64}") && !getCompleteFile(name).isFile()) {
+                hash = name;
+            } else {
+                continue;
+            }
+
+            if (tryDelete(hash)) {
+                logger.info("Removed the leftovers of an unfinished extraction " + hash);
+            }
+        }
+    }
+
+    private synchronized boolean tryDelete(String hash) {
+        if (entriesInUse.containsKey(hash) || entriesBeingExtracted.contains(hash)) {
+            return false;
+        }
+
+        try (FileChannel lockChannel = FileChannel.open(getLockFile(hash).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock = lockChannel.tryLock();
+            if (lock == null) {
+                //  In use by another run
+                return false;
+            }
+            try {
+                //  The marker goes first, so that a partly deleted entry is never mistaken for a complete one
+                Files.deleteIfExists(getCompleteFile(hash).toPath());
+                FileUtils.deleteQuietly(new File(cacheDirectory, hash));
+                FileUtils.deleteQuietly(new File(cacheDirectory, hash + ".partial"));
+                logger.info("Evicted cached extraction " + hash);
+                return true;
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to evict cached extraction " + hash, e);
+            return false;
+        }
+    }
+
+    private static long readSize(File completeFile) {
+        try {
+            return Long.parseLong(FileUtils.readFileToString(completeFile, StandardCharsets.UTF_8).trim());
+        } catch (IOException | NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private File getCompleteFile(String hash) {
+        return new File(cacheDirectory, hash + ".complete");
+    }
+
+    private File getLockFile(String hash) {
+        return new File(cacheDirectory, hash + ".lock");
+    }
+
+    private static String hashContents(File archive) throws IOException {
+        MessageDigest digest = Hashing.newDigest("SHA-256");
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        try (FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return Hashing.toHex(digest.digest());
+    }
+
+    private static FileLock pollLock(FileChannel channel, boolean shared) throws IOException {
+        while (true) {
+            FileLock lock = channel.tryLock(0, Long.MAX_VALUE, shared);
+            if (lock != null) {
+                return lock;
+            }
+            try {
+                Thread.sleep(LOCK_POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the extraction cache");
+            }
+        }
+    }
+
+    private CacheLock lockCache() throws IOException {
+        return new CacheLock(new File(cacheDirectory, "cache.lock"));
+    }
+
+    //  The cache-wide lock, which is only held by one thread of this process at a time
+    private static class CacheLock implements Closeable {
+        private static final Object monitor = new Object();
+        private static boolean isHeld = false;
+
+        private final FileChannel channel;
+        private final FileLock lock;
+
+        CacheLock(File lockFile) throws IOException {
+            synchronized (monitor) {
+                while (isHeld) {
+                    try {
+                        monitor.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for the extraction cache");
+                    }
+                }
+                isHeld = true;
+            }
+
+            FileChannel openedChannel = null;
+            try {
+                openedChannel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                lock = pollLock(openedChannel, false);
+                channel = openedChannel;
+            } catch (IOException | RuntimeException e) {
+                if (openedChannel != null) {
+                    openedChannel.close();
+                }
+                unhold();
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                lock.release();
+                channel.close();
+            } finally {
+                unhold();
+            }
+        }
+
+        private static void unhold() {
+            synchronized (monitor) {
+                isHeld = false;
+                monitor.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+////////////////////////////////////////////////////////////////////////
+//
+//     Copyright (C) 2018 Applied Visions - http://securedecisions.com
+//
+//     The contents of this file are subject to the Mozilla Public License
+//     Version 2.0 (the "License"); you may not use this file except in
+//     compliance with the License. You may obtain a copy of the License at
+//     http://www.mozilla.org/MPL/
+//
+//     Software distributed under the License is distributed on an "AS IS"
+//     basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+//     License for the specific language governing rights and limitations
+//     under the License.
+//
+//     This material is based on research sponsored by the Department of Homeland
+//     Security (DHS) Science and Technology Directorate, Cyber Security Division
+//     (DHS S&T/CSD) via contract number HHSP233201600058C.
+//
+//     Contributor(s):
+//              Secure Decisions, a division of Applied Visions, Inc
+//
+////////////////////////////////////////////////////////////////////////
+
+package com.denimgroup.threadfix.cli.endpoints;
+
+import com.denimgroup.threadfix.data.enums.FrameworkType;
+import org.apache.commons.io.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.denimgroup.threadfix.CollectionUtils.list;
+
+//  Detects the frameworks of a project from a few well-known files near its root, instead of the walk over
+//  every file done by FrameworkCalculator. Returns null when the files found don't clearly identify the
+//  frameworks, ie a pom.xml with neither Spring nor Struts, so that the caller can fall back to the full walk.
+public class FastFrameworkDetector {
+
+    private static Logger logger = LogManager.getLogger(FastFrameworkDetector.class);
+
+    //  The project root is depth 0
+    private static final int MAX_DEPTH = 4;
+
+    public static List<FrameworkType> detect(File projectRoot) {
+        if (!projectRoot.isDirectory()) {
+            return null;
+        }
+
+        Set<FrameworkType> detected = new LinkedHashSet<>();
+        boolean hasJavaBuildFile = false;
+        boolean hasWebXml = false;
+
+        Deque<File> directories = new ArrayDeque<>();
+        Deque<Integer> depths = new ArrayDeque<>();
+        directories.add(projectRoot);
+        depths.add(0);
+
+        while (!directories.isEmpty()) {
+            File directory = directories.poll();
+            int depth = depths.poll();
+
+            File[] children = directory.listFiles();
+            if (children == null) {
+                continue;
+            }
+
+            for (File child : children) {
+                String name = child.getName();
+                if (child.isDirectory()) {
+                    if (depth < MAX_DEPTH && !ProjectDiscovery.PRUNED_DIRECTORIES.contains(name)) {
+                        directories.add(child);
+                        depths.add(depth + 1);
+                    }
+                    continue;
+                }
+
+                if (name.equals("pom.xml") || name.equals("build.gradle")) {
+                    hasJavaBuildFile = true;
+                    addJavaFrameworks(readMarker(child), detected);
+                } else if (name.equals("web.xml")) {
+                    hasWebXml = true;
+                    addJavaFrameworks(readMarker(child), detected);
+                } else if (name.endsWith(".csproj")) {
+                    String contents = readMarker(child);
+                    boolean isMvc = contents.contains("System.Web.Mvc") || contents.contains("Microsoft.AspNetCore") ||
+                        contents.contains("Microsoft.NET.Sdk.Web");
+                    boolean isWebForms = contents.contains(".aspx\"");
+                    if (!isMvc && !isWebForms) {
+                        //  ie a class library or test project, which HAM may still attribute to either framework
+                        return null;
+                    }
+                    if (isMvc) {
+                        detected.add(FrameworkType.DOT_NET_MVC);
+                    }
+                    if (isWebForms) {
+                        detected.add(FrameworkType.DOT_NET_WEB_FORMS);
+                    }
+                } else if (name.equals("Gemfile")) {
+                    if (new File(directory, "config/routes.rb").isFile()) {
+                        detected.add(FrameworkType.RAILS);
+                    }
+                } else if (name.equals("manage.py") || name.equals("settings.py")) {
+                    detected.add(FrameworkType.PYTHON);
+                }
+            }
+        }
+
+        boolean hasJavaFramework = detected.contains(FrameworkType.SPRING_MVC) || detected.contains(FrameworkType.STRUTS);
+        if (hasWebXml && !hasJavaFramework) {
+            detected.add(FrameworkType.JSP);
+        } else if (hasJavaBuildFile && !hasJavaFramework) {
+            return null;
+        }
+
+        if (detected.isEmpty()) {
+            return null;
+        }
+
+        List<FrameworkType> result = list();
+        result.addAll(detected);
+        return result;
+    }
+
+    private static void addJavaFrameworks(String contents, Set<FrameworkType> detected) {
+        if (contents.contains("springframework") || contents.contains("DispatcherServlet")) {
+            detected.add(FrameworkType.SPRING_MVC);
+        }
+        if (contents.contains("struts")) {
+            detected.add(FrameworkType.STRUTS);
+        }
+    }
+
+    private static String readMarker(File file) {
+        try {
+            return FileUtils.readFileToString(file, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            logger.warn("Unable to read " + file.getAbsolutePath(), e);
+            return "";
+        }
+    }
+}
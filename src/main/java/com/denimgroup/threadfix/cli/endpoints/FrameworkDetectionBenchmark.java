@@ -0,0 +1,83 @@
+////////////////////////////////////////////////////////////////////////
+//
+//     Copyright (C) 2018 Applied Visions - http://securedecisions.com
+//
+//     The contents of this file are subject to the Mozilla Public License
+//     Version 2.0 (the "License"); you may not use this file except in
+//     compliance with the License. You may obtain a copy of the License at
+//     http://www.mozilla.org/MPL/
+//
+//     Software distributed under the License is distributed on an "AS IS"
+//     basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+//     License for the specific language governing rights and limitations
+//     under the License.
+//
+//     This material is based on research sponsored by the Department of Homeland
+//     Security (DHS) Science and Technology Directorate, Cyber Security Division
+//     (DHS S&T/CSD) via contract number HHSP233201600058C.
+//
+//     Contributor(s):
+//              Secure Decisions, a division of Applied Visions, Inc
+//
+////////////////////////////////////////////////////////////////////////
+
+package com.denimgroup.threadfix.cli.endpoints;
+
+import com.denimgroup.threadfix.data.enums.FrameworkType;
+import com.denimgroup.threadfix.framework.engine.framework.FrameworkCalculator;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.List;
+
+import static com.denimgroup.threadfix.cli.endpoints.EndpointMain.println;
+
+//  Compares FastFrameworkDetector with FrameworkCalculator on a set of projects, for -benchmark-detection
+public class FrameworkDetectionBenchmark {
+
+    public static void run(List<File> projects) {
+        int numDecided = 0;
+        int numAgreed = 0;
+        long fastNanos = 0;
+        long fullNanos = 0;
+
+        for (File project : projects) {
+            //  The fast detector runs first, so the full walk may benefit from a warmer file system cache and the
+            //  reported speedup is on the conservative side
+            long start = System.nanoTime();
+            List<FrameworkType> fastTypes = FastFrameworkDetector.detect(project);
+            long fastElapsed = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            List<FrameworkType> fullTypes = FrameworkCalculator.getTypes(project);
+            long fullElapsed = System.nanoTime() - start;
+
+            fastNanos += fastElapsed;
+            fullNanos += fullElapsed;
+
+            String outcome;
+            if (fastTypes == null) {
+                outcome = "ambiguous, falls back";
+            } else {
+                numDecided++;
+                if (new HashSet<>(fastTypes).equals(new HashSet<>(fullTypes))) {
+                    numAgreed++;
+                    outcome = "agrees";
+                } else {
+                    outcome = "DISAGREES";
+                }
+            }
+
+            println(project.getAbsolutePath() + ": fast=" + (fastTypes == null ? "?" : fastTypes) + " in " + fastElapsed / 1000000 +
+                "ms, full=" + fullTypes + " in " + fullElapsed / 1000000 + "ms (" + outcome + ")");
+        }
+
+        println(EndpointMain.PRINTLN_SEPARATOR);
+        println("Fast detection decided " + numDecided + "/" + projects.size() + " projects, and agreed with the full walk on " +
+            numAgreed + "/" + numDecided);
+        println("Fast detection took " + fastNanos / 1000000 + "ms in total, the full walk took " + fullNanos / 1000000 + "ms");
+        if (fastNanos > 0) {
+            println(String.format("Speedup: %.1fx", (double)fullNanos / fastNanos));
+        }
+    }
+}
@@ -0,0 +1,144 @@
+////////////////////////////////////////////////////////////////////////
+//
+//     Copyright (C) 2018 Applied Visions - http://securedecisions.com
+//
+//     The contents of this file are subject to the Mozilla Public License
+//     Version 2.0 (the "License"); you may not use this file except in
+//     compliance with the License. You may obtain a copy of the License at
+//     http://www.mozilla.org/MPL/
+//
+//     Software distributed under the License is distributed on an "AS IS"
+//     basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+//     License for the specific language governing rights and limitations
+//     under the License.
+//
+//     This material is based on research sponsored by the Department of Homeland
+//     Security (DHS) Science and Technology Directorate, Cyber Security Division
+//     (DHS S&T/CSD) via contract number HHSP233201600058C.
+//
+//     Contributor(s):
+//              Secure Decisions, a division of Applied Visions, Inc
+//
+////////////////////////////////////////////////////////////////////////
+
+package com.denimgroup.threadfix.cli.endpoints;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+//  Reads the current HEAD commit of a git repository directly from its .git directory, so that
+//  no git binary is needed on the scanning machine
+public class GitHeadReader {
+
+    private static Logger logger = LogManager.getLogger(GitHeadReader.class);
+
+    //  Returns the HEAD commit hash for the repository containing the given folder, or null if the folder
+    //  is not inside a git repository or HEAD could not be resolved
+    public static String readHeadCommit(File projectFolder) {
+        File gitDir = findGitDirectory(projectFolder);
+        if (gitDir == null) {
+            return null;
+        }
+
+        try {
+            String head = readFirstLine(new File(gitDir, "HEAD"));
+            if (head == null) {
+                return null;
+            }
+
+            if (!head.startsWith("ref:")) {
+                //  Detached HEAD
+                return head;
+            }
+
+            String refName = head.substring("ref:".length()).trim();
+            File commonDir = getCommonDirectory(gitDir);
+
+            for (File dir : new File[] { gitDir, commonDir }) {
+                File looseRef = new File(dir, refName);
+                if (looseRef.isFile()) {
+                    return readFirstLine(looseRef);
+                }
+            }
+
+            File packedRefs = new File(commonDir, "packed-refs");
+            if (packedRefs.isFile()) {
+                for (String line : FileUtils.readLines(packedRefs)) {
+                    if (line.startsWith("#") || line.startsWith("^")) {
+                        continue;
+                    }
+                    String[] parts = line.trim().split(" ");
+                    if (parts.length == 2 && parts[1].equals(refName)) {
+                        return parts[0];
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to read git HEAD for " + projectFolder.getAbsolutePath(), e);
+        }
+
+        return null;
+    }
+
+    private static File findGitDirectory(File projectFolder) {
+        File current = projectFolder.getAbsoluteFile();
+        while (current != null) {
+            File dotGit = new File(current, ".git");
+            if (dotGit.isDirectory()) {
+                return dotGit;
+            }
+
+            //  Worktrees and submodules use a ".git" file of the form "gitdir: <path>"
+            if (dotGit.isFile()) {
+                try {
+                    String contents = readFirstLine(dotGit);
+                    if (contents != null && contents.startsWith("gitdir:")) {
+                        File gitDir = new File(contents.substring("gitdir:".length()).trim());
+                        if (!gitDir.isAbsolute()) {
+                            gitDir = new File(current, gitDir.getPath());
+                        }
+                        return gitDir.isDirectory() ? gitDir : null;
+                    }
+                } catch (IOException e) {
+                    logger.warn("Unable to read " + dotGit.getAbsolutePath(), e);
+                }
+                return null;
+            }
+
+            current = current.getParentFile();
+        }
+        return null;
+    }
+
+    private static File getCommonDirectory(File gitDir) throws IOException {
+        File commonDirFile = new File(gitDir, "commondir");
+        if (!commonDirFile.isFile()) {
+            return gitDir;
+        }
+
+        String commonDir = readFirstLine(commonDirFile);
+        if (commonDir == null) {
+            return gitDir;
+        }
+
+        File result = new File(commonDir);
+        if (!result.isAbsolute()) {
+            result = new File(gitDir, commonDir);
+        }
+        return result;
+    }
+
+    private static String readFirstLine(File file) throws IOException {
+        List<String> lines = FileUtils.readLines(file);
+        if (lines.isEmpty()) {
+            return null;
+        }
+        String line = lines.get(0).trim();
+        return line.isEmpty() ? null : line;
+    }
+}
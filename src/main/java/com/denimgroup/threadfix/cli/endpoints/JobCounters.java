@@ -0,0 +1,42 @@
+////////////////////////////////////////////////////////////////////////
+//
+//     Copyright (C) 2018 Applied Visions - http://securedecisions.com
+//
+//     The contents of this file are subject to the Mozilla Public License
+//     Version 2.0 (the "License"); you may not use this file except in
+//     compliance with the License. You may obtain a copy of the License at
+//     http://www.mozilla.org/MPL/
+//
+//     Software distributed under the License is distributed on an "AS IS"
+//     basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+//     License for the specific language governing rights and limitations
+//     under the License.
+//
+//     This material is based on research sponsored by the Department of Homeland
+//     Security (DHS) Science and Technology Directorate, Cyber Security Division
+//     (DHS S&T/CSD) via contract number HHSP233201600058C.
+//
+//     Contributor(s):
+//              Secure Decisions, a division of Applied Visions, Inc
+//
+////////////////////////////////////////////////////////////////////////
+package com.denimgroup.threadfix.cli.endpoints;
+
+//  The contribution of a single job to the summary totals in EndpointMain
+public class JobCounters {
+    public int detectedEndpoints;
+    public int distinctEndpoints;
+    public int detectedParameters;
+    public int distinctParameters;
+    public int projectsWithDuplicates;
+
+    void addToTotals() {
+        synchronized (EndpointMain.class) {
+            EndpointMain.totalDetectedEndpoints += detectedEndpoints;
+            EndpointMain.totalDistinctEndpoints += distinctEndpoints;
+            EndpointMain.totalDetectedParameters += detectedParameters;
+            EndpointMain.totalDistinctParameters += distinctParameters;
+            EndpointMain.numProjectsWithDuplicates += projectsWithDuplicates;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+////////////////////////////////////////////////////////////////////////
+//
+//     Copyright (C) 2018 Applied Visions - http://securedecisions.com
+//
+//     The contents of this file are subject to the Mozilla Public License
+//     Version 2.0 (the "License"); you may not use this file except in
+//     compliance with the License. You may obtain a copy of the License at
+//     http://www.mozilla.org/MPL/
+//
+//     Software distributed under the License is distributed on an "AS IS"
+//     basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+//     License for the specific language governing rights and limitations
+//     under the License.
+//
+//     This material is based on research sponsored by the Department of Homeland
+//     Security (DHS) Science and Technology Directorate, Cyber Security Division
+//     (DHS S&T/CSD) via contract number HHSP233201600058C.
+//
+//     Contributor(s):
+//              Secure Decisions, a division of Applied Visions, Inc
+//
+////////////////////////////////////////////////////////////////////////
+
+package com.denimgroup.threadfix.cli.endpoints;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+import static com.denimgroup.threadfix.CollectionUtils.map;
+
+//  Orders the jobs of a batch longest first, so that a large project listed last doesn't run alone at the end
+//  while the other workers sit idle. Jobs are costed by how long they took in earlier runs, as recorded in the
+//  -job-stats file, and otherwise by the size of their source, converted to an expected time at the rate seen
+//  in earlier runs. Also measures the makespan (time until the last job finishes) of the batch.
+public class JobScheduler {
+
+    private static Logger logger = LogManager.getLogger(JobScheduler.class);
+
+    //  Each file costs about as much to scan as this many bytes, regardless of its size
+    private static final long FILE_OVERHEAD_BYTES = 4096;
+
+    public static class JobStats {
+        public long millis;
+        public long numFiles;
+        public long numBytes;
+        public long recordedAt;
+    }
+
+    private final File statsFile;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, JobStats> history;
+    private final Map<EndpointJob, Long> measuredMillis = new IdentityHashMap<>();
+
+    private List<EndpointJob> inputOrder = Collections.emptyList();
+    private List<EndpointJob> scheduledOrder = Collections.emptyList();
+    private long batchStartTime = -1;
+
+    public int numCostedByHistory = 0;
+    public int numCostedBySize = 0;
+
+    //  The stats file may be null, in which case jobs are always costed by size and nothing is recorded
+    public JobScheduler(File statsFile) {
+        this.statsFile = statsFile;
+        this.history = load(statsFile);
+    }
+
+    //  Returns the order to run the jobs in, and starts timing the batch
+    public synchronized List<EndpointJob> schedule(List<EndpointJob> jobs, boolean longestFirst) {
+        inputOrder = new ArrayList<>(jobs);
+        scheduledOrder = longestFirst ? orderLongestFirst(jobs) : inputOrder;
+        batchStartTime = System.currentTimeMillis();
+        return scheduledOrder;
+    }
+
+    private List<EndpointJob> orderLongestFirst(List<EndpointJob> jobs) {
+        final Map<EndpointJob, Double> expectedCosts = new IdentityHashMap<>();
+        Map<EndpointJob, ProjectSizeEstimator.ProjectSize> unknownJobSizes = new IdentityHashMap<>();
+        for (EndpointJob job : jobs) {
+            JobStats stats = history.get(job.getKey());
+            if (stats != null) {
+                expectedCosts.put(job, (double)stats.millis);
+                numCostedByHistory++;
+            } else {
+                //  Kept on the job, so that neither the scan nor save() has to measure it again
+                job.size = ProjectSizeEstimator.estimate(job.sourceCodePath, job.sourceFilter);
+                unknownJobSizes.put(job, job.size);
+                numCostedBySize++;
+            }
+        }
+
+        //  Without any history, sizes are compared directly since they only need to be in the same unit
+        double millisPerByte = getMillisPerByte();
+        for (Map.Entry<EndpointJob, ProjectSizeEstimator.ProjectSize> entry : unknownJobSizes.entrySet()) {
+            ProjectSizeEstimator.ProjectSize size = entry.getValue();
+            double cost = getSizeCost(size.numFiles, size.numBytes);
+            expectedCosts.put(entry.getKey(), millisPerByte > 0 ? cost * millisPerByte : cost);
+        }
+
+        //  Stable, so equally expensive jobs keep their input order
+        List<EndpointJob> result = new ArrayList<>(jobs);
+        Collections.sort(result, new Comparator<EndpointJob>() {
+            @Override
+            public int compare(EndpointJob a, EndpointJob b) {
+                return Double.compare(expectedCosts.get(b), expectedCosts.get(a));
+            }
+        });
+        return result;
+    }
+
+    private double getMillisPerByte() {
+        long totalMillis = 0;
+        double totalCost = 0;
+        for (JobStats stats : history.values()) {
+            totalMillis += stats.millis;
+            totalCost += getSizeCost(stats.numFiles, stats.numBytes);
+        }
+        return totalCost > 0 ? totalMillis / totalCost : 0;
+    }
+
+    private static double getSizeCost(long numFiles, long numBytes) {
+        return numBytes + (double)numFiles * FILE_OVERHEAD_BYTES;
+    }
+
+    public synchronized long getBatchMillis() {
+        return batchStartTime < 0 ? 0 : System.currentTimeMillis() - batchStartTime;
+    }
+
+    //  Called with the wall-clock time of each job that actually ran, as seen by this process
+    public synchronized void recordDuration(EndpointJob job, long millis) {
+        measuredMillis.put(job, millis);
+    }
+
+    //  Makespan the batch would have had in the order of the path list, given the times the jobs took
+    public long simulateInputOrderMakespan(int numWorkers) {
+        return simulateMakespan(inputOrder, numWorkers);
+    }
+
+    public long simulateScheduledMakespan(int numWorkers) {
+        return simulateMakespan(scheduledOrder, numWorkers);
+    }
+
+    //  Lays out the jobs in the given order on the given number of workers, each job going to the first worker
+    //  that becomes free, as WorkerPool does, and returns when the last one would finish. Jobs that didn't run
+    //  in this process, ie those restored from a journal, take no time.
+    private synchronized long simulateMakespan(List<EndpointJob> jobs, int numWorkers) {
+        PriorityQueue<Long> workerFreeTimes = new PriorityQueue<>();
+        for (int i = 0; i < Math.max(1, numWorkers); i++) {
+            workerFreeTimes.add(0L);
+        }
+
+        long makespan = 0;
+        for (EndpointJob job : jobs) {
+            Long millis = measuredMillis.get(job);
+            long finishTime = workerFreeTimes.poll() + (millis == null ? 0 : millis);
+            workerFreeTimes.add(finishTime);
+            makespan = Math.max(makespan, finishTime);
+        }
+        return makespan;
+    }
+
+    //  Stores the times of the jobs that ran, keeping those of any other jobs in the stats file
+    public synchronized void save() {
+        if (statsFile == null || measuredMillis.isEmpty()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        Map<String, JobStats> stats = load(statsFile);
+        for (Map.Entry<EndpointJob, Long> entry : measuredMillis.entrySet()) {
+            EndpointJob job = entry.getKey();
+            JobStats jobStats = new JobStats();
+            jobStats.millis = entry.getValue();
+            //  The size comes from the scheduler or the job's scan, as walking every project again here would
+            //  double the directory I/O. A job that failed before it was measured keeps its previous size
+            JobStats previousStats = stats.get(job.getKey());
+            if (job.size != null) {
+                jobStats.numFiles = job.size.numFiles;
+                jobStats.numBytes = job.size.numBytes;
+            } else if (previousStats != null) {
+                jobStats.numFiles = previousStats.numFiles;
+                jobStats.numBytes = previousStats.numBytes;
+            } else {
+                //  Its time couldn't be converted to a rate for the jobs costed by size
+                continue;
+            }
+            jobStats.recordedAt = now;
+            stats.put(job.getKey(), jobStats);
+        }
+
+        try {
+            File directory = statsFile.getAbsoluteFile().getParentFile();
+            directory.mkdirs();
+            File tempFile = File.createTempFile(statsFile.getName(), ".tmp", directory);
+            mapper.writeValue(tempFile, stats);
+            Files.move(tempFile.toPath(), statsFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Unable to store job times in " + statsFile.getAbsolutePath(), e);
+        }
+    }
+
+    private Map<String, JobStats> load(File file) {
+        if (file != null && file.isFile()) {
+            try {
+                return mapper.readValue(file, new TypeReference<Map<String, JobStats>>() {});
+            } catch (IOException e) {
+                logger.warn("Unable to load job times from " + file.getAbsolutePath() + ", they will be discarded", e);
+            }
+        }
+        return map();
+    }
+}
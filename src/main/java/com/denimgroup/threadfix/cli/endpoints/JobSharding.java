@@ -0,0 +1,76 @@
+////////////////////////////////////////////////////////////////////////
+//
+//     Copyright (C) 2018 Applied Visions - http://securedecisions.com
+//
+//     The contents of this file are subject to the Mozilla Public License
+//     Version 2.0 (the "License"); you may not use this file except in
+//     compliance with the License. You may obtain a copy of the License at
+//     http://www.mozilla.org/MPL/
+//
+//     Software distributed under the License is distributed on an "AS IS"
+//     basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+//     License for the specific language governing rights and limitations
+//     under the License.
+//
+//     This material is based on research sponsored by the Department of Homeland
+//     Security (DHS) Science and Technology Directorate, Cyber Security Division
+//     (DHS S&T/CSD) via contract number HHSP233201600058C.
+//
+//     Contributor(s):
+//              Secure Decisions, a division of Applied Visions, Inc
+//
+////////////////////////////////////////////////////////////////////////
+package com.denimgroup.threadfix.cli.endpoints;
+
+import java.util.*;
+
+import static com.denimgroup.threadfix.CollectionUtils.list;
+
+//  Splits a list of jobs into shards of similar total size, so that a batch can be spread over several machines.
+//  Every shard computes the same assignment independently: jobs are taken largest first (ties broken by path)
+//  and each is given to the shard with the least work so far (ties broken by shard number).
+public class JobSharding {
+
+    public static List<EndpointJob> selectShard(List<EndpointJob> jobs, int shardNumber, int numShards) {
+        final Map<EndpointJob, Long> sizes = new IdentityHashMap<>();
+        for (EndpointJob job : jobs) {
+            sizes.put(job, ProjectSizeEstimator.estimate(job.sourceCodePath).numBytes);
+        }
+
+        List<EndpointJob> sortedJobs = new ArrayList<>(jobs);
+        Collections.sort(sortedJobs, new Comparator<EndpointJob>() {
+            @Override
+            public int compare(EndpointJob a, EndpointJob b) {
+                int bySize = Long.compare(sizes.get(b), sizes.get(a));
+                if (bySize != 0) {
+                    return bySize;
+                }
+                return a.sourceCodePath.getAbsolutePath().compareTo(b.sourceCodePath.getAbsolutePath());
+            }
+        });
+
+        long[] shardSizes = new long[numShards];
+        Set<EndpointJob> selected = Collections.newSetFromMap(new IdentityHashMap<EndpointJob, Boolean>());
+        for (EndpointJob job : sortedJobs) {
+            int smallestShard = 0;
+            for (int i = 1; i < numShards; i++) {
+                if (shardSizes[i] < shardSizes[smallestShard]) {
+                    smallestShard = i;
+                }
+            }
+            shardSizes[smallestShard] += sizes.get(job);
+            if (smallestShard == shardNumber - 1) {
+                selected.add(job);
+            }
+        }
+
+        //  Keep the jobs of this shard in their original order
+        List<EndpointJob> result = list();
+        for (EndpointJob job : jobs) {
+            if (selected.contains(job)) {
+                result.add(job);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,98 @@
+////////////////////////////////////////////////////////////////////////
+//
+//     Copyright (C) 2018 Applied Visions - http://securedecisions.com
+//
+//     The contents of this file are subject to the Mozilla Public License
+//     Version 2.0 (the "License"); you may not use this file except in
+//     compliance with the License. You may obtain a copy of the License at
+//     http://www.mozilla.org/MPL/
+//
+//     Software distributed under the License is distributed on an "AS IS"
+//     basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+//     License for the specific language governing rights and limitations
+//     under the License.
+//
+//     This material is based on research sponsored by the Department of Homeland
+//     Security (DHS) Science and Technology Directorate, Cyber Security Division
+//     (DHS S&T/CSD) via contract number HHSP233201600058C.
+//
+//     Contributor(s):
+//              Secure Decisions, a division of Applied Visions, Inc
+//
+////////////////////////////////////////////////////////////////////////
+
+package com.denimgroup.threadfix.cli.endpoints;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//  Records how long each phase of an endpoint detection job took. Phases are updated by the thread running the
+//  job and may be read from other threads while the job is still running.
+public class JobTiming {
+
+    private final Map<String, Long> phaseMillis = new LinkedHashMap<>();
+    private long startTime = -1;
+    private long endTime = -1;
+    private String currentPhase = null;
+    private long currentPhaseStart = -1;
+
+    public synchronized void start() {
+        startTime = System.currentTimeMillis();
+    }
+
+    //  Ends the current phase, if any, and begins a new one
+    public synchronized void startPhase(String phase) {
+        long now = System.currentTimeMillis();
+        endCurrentPhase(now);
+        currentPhase = phase;
+        currentPhaseStart = now;
+    }
+
+    public synchronized void finish() {
+        endTime = System.currentTimeMillis();
+        endCurrentPhase(endTime);
+    }
+
+    public synchronized String getCurrentPhase() {
+        return currentPhase;
+    }
+
+    public synchronized long getElapsedMillis() {
+        if (startTime < 0) {
+            return 0;
+        }
+        return (endTime >= 0 ? endTime : System.currentTimeMillis()) - startTime;
+    }
+
+    //  Durations of all completed phases, plus the time spent so far in the current one
+    public synchronized Map<String, Long> getPhaseMillis() {
+        Map<String, Long> result = new LinkedHashMap<>(phaseMillis);
+        if (currentPhase != null) {
+            Long previous = result.get(currentPhase);
+            long current = System.currentTimeMillis() - currentPhaseStart;
+            result.put(currentPhase, previous == null ? current : previous + current);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder result = new StringBuilder();
+        for (Map.Entry<String, Long> phase : getPhaseMillis().entrySet()) {
+            if (result.length() > 0) {
+                result.append(", ");
+            }
+            result.append(phase.getKey()).append('=').append(phase.getValue()).append("ms");
+        }
+        return result.toString();
+    }
+
+    private void endCurrentPhase(long now) {
+        if (currentPhase != null) {
+            Long previous = phaseMillis.get(currentPhase);
+            long duration = now - currentPhaseStart;
+            phaseMillis.put(currentPhase, previous == null ? duration : previous + duration);
+            currentPhase = null;
+        }
+    }
+}
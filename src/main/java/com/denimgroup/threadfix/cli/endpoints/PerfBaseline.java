@@ -0,0 +1,230 @@
+////////////////////////////////////////////////////////////////////////
+//
+//     Copyright (C) 2018 Applied Visions - http://securedecisions.com
+//
+//     The contents of this file are subject to the Mozilla Public License
+//     Version 2.0 (the "License"); you may not use this file except in
+//     compliance with the License. You may obtain a copy of the License at
+//     http://www.mozilla.org/MPL/
+//
+//     Software distributed under the License is distributed on an "AS IS"
+//     basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+//     License for the specific language governing rights and limitations
+//     under the License.
+//
+//     This material is based on research sponsored by the Department of Homeland
+//     Security (DHS) Science and Technology Directorate, Cyber Security Division
+//     (DHS S&T/CSD) via contract number HHSP233201600058C.
+//
+//     Contributor(s):
+//              Secure Decisions, a division of Applied Visions, Inc
+//
+////////////////////////////////////////////////////////////////////////
+
+package com.denimgroup.threadfix.cli.endpoints;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+import static com.denimgroup.threadfix.CollectionUtils.list;
+
+//  Records the wall time, peak heap and endpoint count of each project in a run, and compares them against a
+//  baseline recorded by an earlier run, ie before upgrading the parsers, to catch scans that got significantly
+//  slower or heavier. Small absolute differences are ignored, since they are mostly noise on small projects.
+//  Peak heap is only measured in -workers processes, which scan one project at a time. In a single process other
+//  threads, ie of -prefetch, -split-subprojects or a timed out job, allocate from the same heap at the same time.
+public class PerfBaseline {
+
+    static final int VERSION = 1;
+
+    private static final long MIN_MILLIS_DIFFERENCE = 2000;
+    private static final long MIN_HEAP_DIFFERENCE = 64L * 1024 * 1024;
+
+    public static class ProjectPerf {
+        public long wallMillis;
+        //  -1 if it wasn't measured
+        public long peakHeapBytes = -1;
+        public int numEndpoints;
+        public boolean isFinished = true;
+    }
+
+    public static class Baseline {
+        public int version = VERSION;
+        public long recordedAt;
+        public Map<String, ProjectPerf> projects = new LinkedHashMap<>();
+    }
+
+    public static class Comparison {
+        public List<String> regressions = list();
+        public List<String> notes = list();
+    }
+
+    private final File baselineFile;
+    private final double tolerance;
+    private final Baseline baseline;
+    private final Baseline current = new Baseline();
+    //  Restored from -journal or reused by -skip-unchanged, so their times say nothing about the parsers
+    private final Set<String> reusedProjects = new HashSet<>();
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    //  Tolerance is the fraction by which a project may get slower or heavier, ie 0.2 for 20%
+    public PerfBaseline(File baselineFile, double tolerance) throws IOException {
+        this.baselineFile = baselineFile;
+        this.tolerance = tolerance;
+
+        if (baselineFile.isFile()) {
+            baseline = mapper.readValue(baselineFile, Baseline.class);
+            if (baseline.version != VERSION) {
+                throw new IOException("Unsupported performance baseline version " + baseline.version);
+            }
+        } else {
+            baseline = null;
+        }
+    }
+
+    public boolean hasBaseline() {
+        return baseline != null;
+    }
+
+    public int getNumProjects() {
+        return current.projects.size();
+    }
+
+    public synchronized void record(EndpointJob job, int numEndpoints, boolean isFinished) {
+        if (job.isReused) {
+            reusedProjects.add(job.getKey());
+            return;
+        }
+        ProjectPerf perf = new ProjectPerf();
+        perf.wallMillis = job.timing.getElapsedMillis();
+        perf.peakHeapBytes = job.peakHeapBytes;
+        perf.numEndpoints = numEndpoints;
+        perf.isFinished = isFinished;
+        current.projects.put(job.getKey(), perf);
+    }
+
+    public synchronized Comparison compare() {
+        Comparison comparison = new Comparison();
+        long baselineTotalMillis = 0;
+        long currentTotalMillis = 0;
+
+        for (Map.Entry<String, ProjectPerf> entry : current.projects.entrySet()) {
+            String project = entry.getKey();
+            ProjectPerf now = entry.getValue();
+            ProjectPerf before = baseline.projects.get(project);
+
+            if (before == null) {
+                comparison.notes.add(project + ": not in the baseline");
+                continue;
+            }
+            if (!before.isFinished) {
+                comparison.notes.add(project + ": did not finish in the baseline");
+                continue;
+            }
+            if (!now.isFinished) {
+                comparison.regressions.add(project + ": timed out or failed, took " + before.wallMillis + "ms in the baseline");
+                continue;
+            }
+
+            baselineTotalMillis += before.wallMillis;
+            currentTotalMillis += now.wallMillis;
+
+            if (isRegression(before.wallMillis, now.wallMillis, MIN_MILLIS_DIFFERENCE)) {
+                comparison.regressions.add(project + ": took " + now.wallMillis + "ms, " + describeChange(before.wallMillis, now.wallMillis) +
+                    " than " + before.wallMillis + "ms in the baseline");
+            }
+            if (before.peakHeapBytes >= 0 && now.peakHeapBytes >= 0 &&
+                isRegression(before.peakHeapBytes, now.peakHeapBytes, MIN_HEAP_DIFFERENCE)) {
+                comparison.regressions.add(project + ": peak heap was " + toMegabytes(now.peakHeapBytes) + "MB, " +
+                    describeChange(before.peakHeapBytes, now.peakHeapBytes) + " than " + toMegabytes(before.peakHeapBytes) + "MB in the baseline");
+            }
+            if (before.numEndpoints != now.numEndpoints) {
+                comparison.notes.add(project + ": found " + now.numEndpoints + " endpoints, " + before.numEndpoints + " in the baseline");
+            }
+        }
+
+        //  Catches many projects each getting slightly slower, which wouldn't stand out on their own
+        if (isRegression(baselineTotalMillis, currentTotalMillis, MIN_MILLIS_DIFFERENCE)) {
+            comparison.regressions.add("All projects took " + currentTotalMillis + "ms in total, " +
+                describeChange(baselineTotalMillis, currentTotalMillis) + " than " + baselineTotalMillis + "ms in the baseline");
+        }
+
+        for (String project : reusedProjects) {
+            comparison.notes.add(project + ": results reused from an earlier run, not compared");
+        }
+
+        for (String project : baseline.projects.keySet()) {
+            if (!current.projects.containsKey(project) && !reusedProjects.contains(project)) {
+                comparison.notes.add(project + ": in the baseline but not scanned");
+            }
+        }
+
+        return comparison;
+    }
+
+    private boolean isRegression(long before, long now, long minDifference) {
+        return now - before >= minDifference && now > before * (1 + tolerance);
+    }
+
+    private static String describeChange(long before, long now) {
+        return before == 0 ? "more" : Math.round(100.0 * (now - before) / before) + "% more";
+    }
+
+    private static long toMegabytes(long bytes) {
+        return bytes / (1024 * 1024);
+    }
+
+    //  Reused projects keep their entry from the previous baseline, if any. The file is replaced in one step, so
+    //  that a crash can't leave a truncated baseline behind
+    public synchronized void save() throws IOException {
+        Baseline result = new Baseline();
+        result.recordedAt = System.currentTimeMillis();
+        result.projects.putAll(current.projects);
+        if (baseline != null) {
+            for (String project : reusedProjects) {
+                ProjectPerf before = baseline.projects.get(project);
+                if (before != null) {
+                    result.projects.put(project, before);
+                }
+            }
+        }
+
+        File directory = baselineFile.getAbsoluteFile().getParentFile();
+        directory.mkdirs();
+        File tempFile = File.createTempFile(baselineFile.getName(), ".tmp", directory);
+        try {
+            mapper.writeValue(tempFile, result);
+            Files.move(tempFile.toPath(), baselineFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    //  Peak heap usage is measured per job by resetting the peaks of the heap memory pools before it starts. The
+    //  pools peak at different times, so their sum slightly overestimates the actual peak.
+    static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    static long getPeakHeapBytes() {
+        long peakBytes = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peakBytes += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peakBytes;
+    }
+}
@@ -0,0 +1,158 @@
+////////////////////////////////////////////////////////////////////////
+//
+//     Copyright (C) 2018 Applied Visions - http://securedecisions.com
+//
+//     The contents of this file are subject to the Mozilla Public License
+//     Version 2.0 (the "License"); you may not use this file except in
+//     compliance with the License. You may obtain a copy of the License at
+//     http://www.mozilla.org/MPL/
+//
+//     Software distributed under the License is distributed on an "AS IS"
+//     basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+//     License for the specific language governing rights and limitations
+//     under the License.
+//
+//     This material is based on research sponsored by the Department of Homeland
+//     Security (DHS) Science and Technology Directorate, Cyber Security Division
+//     (DHS S&T/CSD) via contract number HHSP233201600058C.
+//
+//     Contributor(s):
+//              Secure Decisions, a division of Applied Visions, Inc
+//
+////////////////////////////////////////////////////////////////////////
+
+package com.denimgroup.threadfix.cli.endpoints;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import static com.denimgroup.threadfix.CollectionUtils.map;
+
+//  Remembers the responses to -validation-server probes, keyed by base URL, HTTP method and path, so that
+//  endpoints shared by several projects, or probed by a recent run, aren't requested again until the TTL
+//  expires. Results for each base URL are kept in their own file in the cache directory.
+public class ProbeCache {
+
+    private static Logger logger = LogManager.getLogger(ProbeCache.class);
+
+    public static class ProbeResult {
+        public int responseCode;
+        public long latencyMillis;
+        public long probedAt;
+    }
+
+    private final File cacheDirectory;
+    private final long ttlMillis;
+    //  Ignore cached results, but still store new ones
+    private final boolean refresh;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final Map<String, Map<String, ProbeResult>> resultsByBaseUrl = map();
+    private final Set<String> changedBaseUrls = new HashSet<>();
+
+    public ProbeCache(File cacheDirectory, long ttlMillis, boolean refresh) {
+        this.cacheDirectory = cacheDirectory;
+        this.ttlMillis = ttlMillis;
+        this.refresh = refresh;
+        if (!cacheDirectory.isDirectory()) {
+            cacheDirectory.mkdirs();
+        }
+    }
+
+    //  Returns null if the request hasn't been made within the TTL
+    public synchronized ProbeResult get(String baseUrl, String httpMethod, String path) {
+        if (refresh) {
+            return null;
+        }
+
+        ProbeResult result = getResults(baseUrl).get(getKey(httpMethod, path));
+        if (result == null || isExpired(result)) {
+            return null;
+        }
+        return result;
+    }
+
+    public synchronized void put(String baseUrl, String httpMethod, String path, ProbeResult result) {
+        getResults(baseUrl).put(getKey(httpMethod, path), result);
+        changedBaseUrls.add(baseUrl);
+    }
+
+    //  Writes new results to disk, keeping any newer ones stored meanwhile by other processes
+    public synchronized void save() {
+        for (String baseUrl : changedBaseUrls) {
+            Map<String, ProbeResult> results = getResults(baseUrl);
+            File cacheFile = getCacheFile(baseUrl);
+
+            Map<String, ProbeResult> stored = load(cacheFile);
+            for (Map.Entry<String, ProbeResult> entry : stored.entrySet()) {
+                ProbeResult ours = results.get(entry.getKey());
+                if (ours == null || ours.probedAt < entry.getValue().probedAt) {
+                    results.put(entry.getKey(), entry.getValue());
+                }
+            }
+            removeExpired(results);
+
+            try {
+                File tempFile = File.createTempFile(cacheFile.getName(), ".tmp", cacheDirectory);
+                mapper.writeValue(tempFile, results);
+                Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                logger.warn("Unable to store probe results for " + baseUrl, e);
+            }
+        }
+        changedBaseUrls.clear();
+    }
+
+    private Map<String, ProbeResult> getResults(String baseUrl) {
+        Map<String, ProbeResult> results = resultsByBaseUrl.get(baseUrl);
+        if (results == null) {
+            results = load(getCacheFile(baseUrl));
+            removeExpired(results);
+            resultsByBaseUrl.put(baseUrl, results);
+        }
+        return results;
+    }
+
+    private Map<String, ProbeResult> load(File cacheFile) {
+        if (cacheFile.isFile()) {
+            try {
+                return mapper.readValue(cacheFile, new TypeReference<Map<String, ProbeResult>>() {});
+            } catch (IOException e) {
+                logger.warn("Unable to load probe results from " + cacheFile.getAbsolutePath() + ", they will be discarded", e);
+            }
+        }
+        return map();
+    }
+
+    private void removeExpired(Map<String, ProbeResult> results) {
+        Iterator<ProbeResult> iterator = results.values().iterator();
+        while (iterator.hasNext()) {
+            if (isExpired(iterator.next())) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private boolean isExpired(ProbeResult result) {
+        return System.currentTimeMillis() - result.probedAt > ttlMillis;
+    }
+
+    private File getCacheFile(String baseUrl) {
+        return new File(cacheDirectory, Hashing.sha1Hex(baseUrl) + ".probes.json");
+    }
+
+    private static String getKey(String httpMethod, String path) {
+        return httpMethod + " " + path;
+    }
+}
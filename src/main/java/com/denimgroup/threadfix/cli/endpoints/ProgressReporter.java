@@ -0,0 +1,262 @@
+////////////////////////////////////////////////////////////////////////
+//
+//     Copyright (C) 2018 Applied Visions - http://securedecisions.com
+//
+//     The contents of this file are subject to the Mozilla Public License
+//     Version 2.0 (the "License"); you may not use this file except in
+//     compliance with the License. You may obtain a copy of the License at
+//     http://www.mozilla.org/MPL/
+//
+//     Software distributed under the License is distributed on an "AS IS"
+//     basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+//     License for the specific language governing rights and limitations
+//     under the License.
+//
+//     This material is based on research sponsored by the Department of Homeland
+//     Security (DHS) Science and Technology Directorate, Cyber Security Division
+//     (DHS S&T/CSD) via contract number HHSP233201600058C.
+//
+//     Contributor(s):
+//              Secure Decisions, a division of Applied Visions, Inc
+//
+////////////////////////////////////////////////////////////////////////
+
+package com.denimgroup.threadfix.cli.endpoints;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+import static com.denimgroup.threadfix.CollectionUtils.list;
+
+//  Periodically reports the progress of a run on stderr and/or in a status file, which is rewritten each time.
+//  Neither goes to stdout, so the reports work with every output format including -json and -full-json.
+public class ProgressReporter {
+
+    private static Logger logger = LogManager.getLogger(ProgressReporter.class);
+
+    public static class RunningProject {
+        public String path;
+        public String phase;
+        public long elapsedMillis;
+    }
+
+    //  Written to the status file as JSON
+    public static class Status {
+        public long updatedAt;
+        public long elapsedMillis;
+        public int projectsDone;
+        public int projectsTotal;
+        public boolean isTotalFinal;
+        public int projectsFailed;
+        //  Restored from -journal or reused by -skip-unchanged, which are left out of the rates and ETA
+        public int projectsReused;
+        public long endpoints;
+        public double endpointsPerSecond;
+        public long files;
+        public double filesPerSecond;
+        public long heapUsedBytes;
+        public long heapMaxBytes;
+        //  -1 until it can be estimated
+        public long etaMillis = -1;
+        public List<RunningProject> running = list();
+    }
+
+    private final long intervalMillis;
+    private final PrintStream console;
+    private final File statusFile;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final Set<EndpointJob> runningJobs = Collections.newSetFromMap(new LinkedHashMap<EndpointJob, Boolean>());
+    private long startTime;
+    private int numProjectsTotal = 0;
+    private boolean isTotalFinal = false;
+    private int numProjectsDone = 0;
+    private int numProjectsFailed = 0;
+    private int numProjectsReused = 0;
+    private long numEndpoints = 0;
+    //  Only of the jobs that were scanned, from which the rates are worked out
+    private long numScannedEndpoints = 0;
+    private long numFiles = 0;
+
+    private Thread reportingThread;
+
+    //  Either the console or the status file may be null
+    public ProgressReporter(long intervalMillis, PrintStream console, File statusFile) {
+        this.intervalMillis = intervalMillis;
+        this.console = console;
+        this.statusFile = statusFile;
+    }
+
+    public void start() {
+        startTime = System.currentTimeMillis();
+        reportingThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        Thread.sleep(intervalMillis);
+                        report();
+                    }
+                } catch (InterruptedException e) {
+                    //  Stopped
+                }
+            }
+        }, "progress-reporter");
+        reportingThread.setDaemon(true);
+        reportingThread.start();
+    }
+
+    //  Stops reporting, after a last report of the final state
+    public void stop() {
+        reportingThread.interrupt();
+        try {
+            reportingThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        report();
+    }
+
+    public synchronized void addToTotal(int numProjects) {
+        numProjectsTotal += numProjects;
+    }
+
+    //  Called once no more projects will be added, ie when -discover has finished walking the tree
+    public synchronized void finishTotal() {
+        isTotalFinal = true;
+    }
+
+    public synchronized void jobStarted(EndpointJob job) {
+        runningJobs.add(job);
+    }
+
+    public synchronized void jobFinished(EndpointJob job, int numJobEndpoints, boolean isFailed) {
+        runningJobs.remove(job);
+        numProjectsDone++;
+        if (isFailed) {
+            numProjectsFailed++;
+        }
+        numEndpoints += numJobEndpoints;
+        if (job.isReused) {
+            numProjectsReused++;
+            return;
+        }
+        numScannedEndpoints += numJobEndpoints;
+        //  Measured by the job's own scan, so the tree isn't walked again here
+        if (job.size != null) {
+            numFiles += job.size.numFiles;
+        }
+    }
+
+    private void report() {
+        Status status;
+        synchronized (this) {
+            status = getStatus();
+        }
+
+        if (console != null) {
+            console.println(format(status));
+        }
+        if (statusFile != null) {
+            writeStatusFile(status);
+        }
+    }
+
+    private Status getStatus() {
+        Status status = new Status();
+        status.updatedAt = System.currentTimeMillis();
+        status.elapsedMillis = status.updatedAt - startTime;
+        status.projectsDone = numProjectsDone;
+        status.projectsTotal = numProjectsTotal;
+        status.isTotalFinal = isTotalFinal;
+        status.projectsFailed = numProjectsFailed;
+        status.projectsReused = numProjectsReused;
+        status.endpoints = numEndpoints;
+        status.files = numFiles;
+
+        double elapsedSeconds = Math.max(1, status.elapsedMillis) / 1000.0;
+        status.endpointsPerSecond = numScannedEndpoints / elapsedSeconds;
+        status.filesPerSecond = numFiles / elapsedSeconds;
+
+        Runtime runtime = Runtime.getRuntime();
+        status.heapUsedBytes = runtime.totalMemory() - runtime.freeMemory();
+        status.heapMaxBytes = runtime.maxMemory();
+
+        //  Assumes the remaining projects finish at the rate the scanned ones did
+        int numProjectsScanned = numProjectsDone - numProjectsReused;
+        if (isTotalFinal && numProjectsScanned > 0) {
+            status.etaMillis = status.elapsedMillis * (numProjectsTotal - numProjectsDone) / numProjectsScanned;
+        }
+
+        for (EndpointJob job : runningJobs) {
+            RunningProject project = new RunningProject();
+            project.path = job.sourceCodePath.getAbsolutePath();
+            //  Jobs in worker processes only have their phases timed inside the worker
+            String phase = job.timing.getCurrentPhase();
+            project.phase = phase != null ? phase : "running";
+            project.elapsedMillis = job.timing.getElapsedMillis();
+            status.running.add(project);
+        }
+
+        return status;
+    }
+
+    static String format(Status status) {
+        StringBuilder result = new StringBuilder("[progress] ");
+        result.append(status.projectsDone).append('/').append(status.projectsTotal);
+        if (!status.isTotalFinal) {
+            result.append(" found so far");
+        }
+        result.append(" projects done");
+        if (status.projectsFailed > 0) {
+            result.append(" (").append(status.projectsFailed).append(" failed or timed out)");
+        }
+        if (status.projectsReused > 0) {
+            result.append(" (").append(status.projectsReused).append(" reused)");
+        }
+        result.append(", ").append(status.endpoints).append(" endpoints (").append(String.format("%.1f", status.endpointsPerSecond)).append("/s)");
+        result.append(", ").append(status.files).append(" files (").append(String.format("%.1f", status.filesPerSecond)).append("/s)");
+        result.append(", heap ").append(status.heapUsedBytes / (1024 * 1024)).append('/').append(status.heapMaxBytes / (1024 * 1024)).append("MB");
+        result.append(", elapsed ").append(formatMillis(status.elapsedMillis));
+        if (status.etaMillis >= 0) {
+            result.append(", ETA ").append(formatMillis(status.etaMillis));
+        }
+
+        for (RunningProject project : status.running) {
+            result.append(System.lineSeparator()).append("[progress]   ").append(project.path).append(": ")
+                .append(project.phase).append(" for ").append(formatMillis(project.elapsedMillis));
+        }
+        return result.toString();
+    }
+
+    static String formatMillis(long millis) {
+        long seconds = millis / 1000;
+        if (seconds < 60) {
+            return seconds + "s";
+        } else if (seconds < 60 * 60) {
+            return (seconds / 60) + "m" + (seconds % 60) + "s";
+        } else {
+            return (seconds / (60 * 60)) + "h" + ((seconds / 60) % 60) + "m";
+        }
+    }
+
+    private void writeStatusFile(Status status) {
+        try {
+            File directory = statusFile.getAbsoluteFile().getParentFile();
+            directory.mkdirs();
+            File tempFile = File.createTempFile(statusFile.getName(), ".tmp", directory);
+            mapper.writeValue(tempFile, status);
+            Files.move(tempFile.toPath(), statusFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Unable to write progress to " + statusFile.getAbsolutePath(), e);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+////////////////////////////////////////////////////////////////////////
+//
+//     Copyright (C) 2018 Applied Visions - http://securedecisions.com
+//
+//     The contents of this file are subject to the Mozilla Public License
+//     Version 2.0 (the "License"); you may not use this file except in
+//     compliance with the License. You may obtain a copy of the License at
+//     http://www.mozilla.org/MPL/
+//
+//     Software distributed under the License is distributed on an "AS IS"
+//     basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+//     License for the specific language governing rights and limitations
+//     under the License.
+//
+//     This material is based on research sponsored by the Department of Homeland
+//     Security (DHS) Science and Technology Directorate, Cyber Security Division
+//     (DHS S&T/CSD) via contract number HHSP233201600058C.
+//
+//     Contributor(s):
+//              Secure Decisions, a division of Applied Visions, Inc
+//
+////////////////////////////////////////////////////////////////////////
+
+package com.denimgroup.threadfix.cli.endpoints;
+
+import com.denimgroup.threadfix.data.enums.FrameworkType;
+import com.denimgroup.threadfix.data.interfaces.Endpoint;
+import com.denimgroup.threadfix.framework.engine.full.EndpointSerialization;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.io.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.List;
+
+import static com.denimgroup.threadfix.CollectionUtils.list;
+
+//  Remembers the git HEAD, working tree state and detected endpoints of each scanned project so that
+//  unchanged projects can be skipped on the next run
+public class ProjectChangeCache {
+
+    private static Logger logger = LogManager.getLogger(ProjectChangeCache.class);
+
+    public static class ProjectState {
+        public String sourcePath;
+        public String headCommit;
+        public String treeFingerprint;
+        public List<String> frameworkTypes = list();
+        public String sourceFilter;
+        public int numEndpoints;
+        //  What the project added to the summary totals, which are replayed when its endpoints are reused
+        public JobCounters counters;
+    }
+
+    private final File cacheDirectory;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    public ProjectChangeCache(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+        if (!cacheDirectory.isDirectory()) {
+            cacheDirectory.mkdirs();
+        }
+    }
+
+    public ProjectState computeState(EndpointJob job) {
+        ProjectState state = new ProjectState();
+        state.sourcePath = job.sourceCodePath.getAbsolutePath();
+        for (FrameworkType type : job.frameworkTypes) {
+            state.frameworkTypes.add(type.name());
+        }
+        if (job.sourceFilter != null) {
+            state.sourceFilter = job.sourceFilter.toString();
+        }
+
+        if (job.sourceCodePath.isDirectory()) {
+            state.headCommit = GitHeadReader.readHeadCommit(job.sourceCodePath);
+        }
+        state.treeFingerprint = fingerprintTree(job.sourceCodePath);
+
+        return state;
+    }
+
+    //  Returns the endpoints stored by the previous run, or null if the project changed since then. The counters
+    //  stored with them are copied to the current state.
+    public List<Endpoint> loadIfUnchanged(ProjectState currentState) {
+        File stateFile = getStateFile(currentState.sourcePath);
+        File endpointsFile = getEndpointsFile(currentState.sourcePath);
+        if (currentState.treeFingerprint == null || !stateFile.isFile() || !endpointsFile.isFile()) {
+            return null;
+        }
+
+        try {
+            ProjectState previousState = mapper.readValue(stateFile, ProjectState.class);
+            if (!sameValue(previousState.headCommit, currentState.headCommit) ||
+                !sameValue(previousState.treeFingerprint, currentState.treeFingerprint) ||
+                !previousState.frameworkTypes.equals(currentState.frameworkTypes) ||
+                !sameValue(previousState.sourceFilter, currentState.sourceFilter) ||
+                previousState.counters == null) {
+                return null;
+            }
+
+            Endpoint[] endpoints = EndpointSerialization.deserializeAll(FileUtils.readFileToString(endpointsFile));
+            if (endpoints == null || endpoints.length != previousState.numEndpoints) {
+                return null;
+            }
+
+            List<Endpoint> result = list();
+            Collections.addAll(result, endpoints);
+            currentState.counters = previousState.counters;
+            return result;
+        } catch (IOException e) {
+            logger.warn("Unable to load cached results for " + currentState.sourcePath + ", project will be re-scanned", e);
+            return null;
+        }
+    }
+
+    public void store(ProjectState state, List<Endpoint> endpoints, JobCounters counters) {
+        if (state.treeFingerprint == null) {
+            return;
+        }
+
+        state.numEndpoints = endpoints.size();
+        state.counters = counters;
+        try {
+            FileUtils.writeStringToFile(getEndpointsFile(state.sourcePath), EndpointSerialization.serializeAll(endpoints));
+            mapper.writeValue(getStateFile(state.sourcePath), state);
+        } catch (IOException e) {
+            logger.warn("Unable to store cached results for " + state.sourcePath, e);
+        }
+    }
+
+    private File getStateFile(String sourcePath) {
+        return new File(cacheDirectory, Hashing.sha1Hex(sourcePath) + ".state.json");
+    }
+
+    private File getEndpointsFile(String sourcePath) {
+        return new File(cacheDirectory, Hashing.sha1Hex(sourcePath) + ".endpoints.json");
+    }
+
+    //  Hashes the relative path, size and modification time of every file in the tree, which is much cheaper
+    //  than parsing it and changes whenever a file is added, removed or edited
+    private static String fingerprintTree(File sourcePath) {
+        final Path root = sourcePath.toPath();
+        final List<String> entries = list();
+
+        try {
+            if (!sourcePath.isDirectory()) {
+                entries.add(sourcePath.length() + ":" + sourcePath.lastModified());
+            } else {
+                Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                        if (dir.getFileName() != null && dir.getFileName().toString().equals(".git")) {
+                            return FileVisitResult.SKIP_SUBTREE;
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        entries.add(root.relativize(file).toString().replace('\\', '/') + ":" +
+                            attrs.size() + ":" + attrs.lastModifiedTime().toMillis());
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    //  An unreadable file or folder is part of the fingerprint rather than making the project
+                    //  uncacheable, so the fingerprint still changes when it becomes readable again
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                        logger.warn("Unable to read " + file + " while fingerprinting " + root, exc);
+                        entries.add(root.relativize(file).toString().replace('\\', '/') + ":unreadable");
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                        if (exc != null) {
+                            logger.warn("Unable to list " + dir + " while fingerprinting " + root, exc);
+                            entries.add(root.relativize(dir).toString().replace('\\', '/') + "/:unreadable");
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to fingerprint " + sourcePath.getAbsolutePath(), e);
+            return null;
+        }
+
+        Collections.sort(entries);
+
+        MessageDigest digest = Hashing.newDigest("SHA-1");
+        for (String entry : entries) {
+            digest.update(entry.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte)'\n');
+        }
+        return Hashing.toHex(digest.digest());
+    }
+
+    private static boolean sameValue(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
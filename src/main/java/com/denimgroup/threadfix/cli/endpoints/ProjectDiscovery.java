@@ -0,0 +1,143 @@
+////////////////////////////////////////////////////////////////////////
+//
+//     Copyright (C) 2018 Applied Visions - http://securedecisions.com
+//
+//     The contents of this file are subject to the Mozilla Public License
+//     Version 2.0 (the "License"); you may not use this file except in
+//     compliance with the License. You may obtain a copy of the License at
+//     http://www.mozilla.org/MPL/
+//
+//     Software distributed under the License is distributed on an "AS IS"
+//     basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+//     License for the specific language governing rights and limitations
+//     under the License.
+//
+//     This material is based on research sponsored by the Department of Homeland
+//     Security (DHS) Science and Technology Directorate, Cyber Security Division
+//     (DHS S&T/CSD) via contract number HHSP233201600058C.
+//
+//     Contributor(s):
+//              Secure Decisions, a division of Applied Visions, Inc
+//
+////////////////////////////////////////////////////////////////////////
+
+package com.denimgroup.threadfix.cli.endpoints;
+
+import com.denimgroup.threadfix.data.enums.FrameworkType;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+
+import static com.denimgroup.threadfix.CollectionUtils.list;
+
+//  Walks a directory tree in parallel looking for project roots, identified by framework marker files, and
+//  queues a job for each one as soon as it is found. Project roots are not searched any further.
+public class ProjectDiscovery {
+
+    static final Set<String> PRUNED_DIRECTORIES = new HashSet<>(Arrays.asList(
+        "node_modules", ".git", ".svn", ".hg", "bin", "obj", "target", "build", "dist", "packages", ".idea", ".vs"
+    ));
+
+    private static final EndpointJob END_OF_DISCOVERY = new EndpointJob();
+
+    private final File rootFolder;
+    private final BlockingQueue<EndpointJob> discoveredJobs = new LinkedBlockingQueue<>();
+
+    public ProjectDiscovery(File rootFolder) {
+        this.rootFolder = rootFolder.getAbsoluteFile();
+    }
+
+    public void start() {
+        Thread discoveryThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    new ForkJoinPool().invoke(new DirectoryTask(rootFolder));
+                } finally {
+                    discoveredJobs.add(END_OF_DISCOVERY);
+                }
+            }
+        }, "project-discovery");
+        discoveryThread.setDaemon(true);
+        discoveryThread.start();
+    }
+
+    //  Blocks until the next project is discovered, returning null once the whole tree has been walked
+    public EndpointJob takeNext() throws InterruptedException {
+        EndpointJob job = discoveredJobs.take();
+        if (job == END_OF_DISCOVERY) {
+            //  Leave the marker in place for any later calls
+            discoveredJobs.add(END_OF_DISCOVERY);
+            return null;
+        }
+        return job;
+    }
+
+    private class DirectoryTask extends RecursiveAction {
+        private final File directory;
+
+        DirectoryTask(File directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        protected void compute() {
+            File[] children = directory.listFiles();
+            if (children == null) {
+                return;
+            }
+
+            if (isProjectRoot(directory, children)) {
+                List<FrameworkType> frameworkTypes = EndpointMain.detectFrameworks(directory);
+                if (frameworkTypes.isEmpty()) {
+                    frameworkTypes.add(FrameworkType.DETECT);
+                }
+
+                EndpointJob job = new EndpointJob();
+                job.sourceCodePath = directory;
+                job.frameworkTypes = frameworkTypes;
+                discoveredJobs.add(job);
+                return;
+            }
+
+            List<DirectoryTask> subtasks = list();
+            for (File child : children) {
+                if (child.isDirectory() && !PRUNED_DIRECTORIES.contains(child.getName()) && !isSymbolicLink(child)) {
+                    subtasks.add(new DirectoryTask(child));
+                }
+            }
+            invokeAll(subtasks);
+        }
+    }
+
+    static boolean isProjectRoot(File directory, File[] children) {
+        boolean hasGemfile = false;
+        for (File child : children) {
+            String name = child.getName();
+            if (child.isFile()) {
+                if (name.equals("pom.xml") || name.equals("build.gradle") || name.equals("manage.py") ||
+                    name.endsWith(".csproj") || name.endsWith(".sln")) {
+                    return true;
+                }
+                if (name.equals("Gemfile")) {
+                    hasGemfile = true;
+                }
+            } else if (name.equals("WEB-INF") && new File(child, "web.xml").isFile()) {
+                return true;
+            }
+        }
+        return hasGemfile && new File(directory, "config/routes.rb").isFile();
+    }
+
+    private static boolean isSymbolicLink(File file) {
+        return Files.isSymbolicLink(file.toPath());
+    }
+}
@@ -0,0 +1,90 @@
+////////////////////////////////////////////////////////////////////////
+//
+//     Copyright (C) 2018 Applied Visions - http://securedecisions.com
+//
+//     The contents of this file are subject to the Mozilla Public License
+//     Version 2.0 (the "License"); you may not use this file except in
+//     compliance with the License. You may obtain a copy of the License at
+//     http://www.mozilla.org/MPL/
+//
+//     Software distributed under the License is distributed on an "AS IS"
+//     basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+//     License for the specific language governing rights and limitations
+//     under the License.
+//
+//     This material is based on research sponsored by the Department of Homeland
+//     Security (DHS) Science and Technology Directorate, Cyber Security Division
+//     (DHS S&T/CSD) via contract number HHSP233201600058C.
+//
+//     Contributor(s):
+//              Secure Decisions, a division of Applied Visions, Inc
+//
+////////////////////////////////////////////////////////////////////////
+package com.denimgroup.threadfix.cli.endpoints;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+
+//  Estimates how much work a project will be to scan from the number and total size of its files
+public class ProjectSizeEstimator {
+
+    private static Logger logger = LogManager.getLogger(ProjectSizeEstimator.class);
+
+    public static class ProjectSize {
+        public long numFiles = 0;
+        public long numBytes = 0;
+    }
+
+    public static ProjectSize estimate(File sourceCodePath) {
+        return estimate(sourceCodePath, null);
+    }
+
+    //  Only counts the files accepted by the filter, if any
+    public static ProjectSize estimate(File sourceCodePath, final SourceFilter sourceFilter) {
+        final ProjectSize size = new ProjectSize();
+        final Path root = sourceCodePath.toPath();
+
+        if (!sourceCodePath.isDirectory()) {
+            //  Archives are only measured by their compressed size
+            size.numFiles = 1;
+            size.numBytes = sourceCodePath.length();
+            return size;
+        }
+
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (dir.getFileName() != null && dir.getFileName().toString().equals(".git")) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (sourceFilter != null && !sourceFilter.accepts(SourceFilter.getRelativePath(root, file))) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    size.numFiles++;
+                    size.numBytes += attrs.size();
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            logger.warn("Unable to measure " + sourceCodePath.getAbsolutePath(), e);
+        }
+
+        return size;
+    }
+}
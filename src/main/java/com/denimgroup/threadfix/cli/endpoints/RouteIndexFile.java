@@ -0,0 +1,326 @@
+////////////////////////////////////////////////////////////////////////
+//
+//     Copyright (C) 2018 Applied Visions - http://securedecisions.com
+//
+//     The contents of this file are subject to the Mozilla Public License
+//     Version 2.0 (the "License"); you may not use this file except in
+//     compliance with the License. You may obtain a copy of the License at
+//     http://www.mozilla.org/MPL/
+//
+//     Software distributed under the License is distributed on an "AS IS"
+//     basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+//     License for the specific language governing rights and limitations
+//     under the License.
+//
+//     This material is based on research sponsored by the Department of Homeland
+//     Security (DHS) Science and Technology Directorate, Cyber Security Division
+//     (DHS S&T/CSD) via contract number HHSP233201600058C.
+//
+//     Contributor(s):
+//              Secure Decisions, a division of Applied Visions, Inc
+//
+////////////////////////////////////////////////////////////////////////
+
+package com.denimgroup.threadfix.cli.endpoints;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.denimgroup.threadfix.CollectionUtils.list;
+import static com.denimgroup.threadfix.CollectionUtils.map;
+
+//  Compact on-disk form of a RouteTrie that is memory-mapped for lookups instead of being loaded. Layout,
+//  with all values as big-endian ints:
+//
+//      header:    MAGIC, VERSION, stringCount, routeCount, nodeCount
+//      strings:   stringCount offsets, followed by (byteLength, UTF-8 bytes) for each string
+//      routes:    (project, httpMethod, urlPath, filePath, startLine, endLine) for each route, strings by index
+//      nodes:     nodeCount offsets, followed by a record for each node:
+//                     literalCount, (segment, childNode) pairs sorted by segment,
+//                     wildcardChild, catchAllChild, routeCount, route indexes
+//
+//  Node 0 is the root, and -1 marks a missing child or string.
+public class RouteIndexFile {
+
+    private static final int MAGIC = 0x41534449;  //  "ASDI"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 5 * 4;
+    private static final int ROUTE_SIZE = 6 * 4;
+
+    public static void write(RouteTrie trie, File outputFile) throws IOException {
+        //  Number the nodes breadth-first so that the root is node 0
+        List<RouteTrie.Node> nodes = list();
+        Map<RouteTrie.Node, Integer> nodeIds = new IdentityHashMap<>();
+        Deque<RouteTrie.Node> queue = new ArrayDeque<>();
+        queue.add(trie.getRoot());
+        while (!queue.isEmpty()) {
+            RouteTrie.Node node = queue.poll();
+            nodeIds.put(node, nodes.size());
+            nodes.add(node);
+            queue.addAll(node.literalChildren.values());
+            if (node.wildcardChild != null) {
+                queue.add(node.wildcardChild);
+            }
+            if (node.catchAllChild != null) {
+                queue.add(node.catchAllChild);
+            }
+        }
+
+        List<RouteTrie.Route> routes = trie.getRoutes();
+        Map<RouteTrie.Route, Integer> routeIds = new IdentityHashMap<>();
+        for (RouteTrie.Route route : routes) {
+            routeIds.put(route, routeIds.size());
+        }
+
+        StringTable strings = new StringTable();
+
+        ByteArrayOutputStream routeBytes = new ByteArrayOutputStream();
+        DataOutputStream routeOut = new DataOutputStream(routeBytes);
+        for (RouteTrie.Route route : routes) {
+            routeOut.writeInt(strings.indexOf(route.project));
+            routeOut.writeInt(strings.indexOf(route.httpMethod));
+            routeOut.writeInt(strings.indexOf(route.urlPath));
+            routeOut.writeInt(strings.indexOf(route.filePath));
+            routeOut.writeInt(route.startingLineNumber);
+            routeOut.writeInt(route.endingLineNumber);
+        }
+
+        ByteArrayOutputStream nodeBytes = new ByteArrayOutputStream();
+        DataOutputStream nodeOut = new DataOutputStream(nodeBytes);
+        int[] nodeOffsets = new int[nodes.size()];
+        for (int i = 0; i < nodes.size(); i++) {
+            RouteTrie.Node node = nodes.get(i);
+            nodeOffsets[i] = nodeOut.size();
+            nodeOut.writeInt(node.literalChildren.size());
+            for (Map.Entry<String, RouteTrie.Node> child : node.literalChildren.entrySet()) {
+                nodeOut.writeInt(strings.indexOf(child.getKey()));
+                nodeOut.writeInt(nodeIds.get(child.getValue()));
+            }
+            nodeOut.writeInt(node.wildcardChild == null ? -1 : nodeIds.get(node.wildcardChild));
+            nodeOut.writeInt(node.catchAllChild == null ? -1 : nodeIds.get(node.catchAllChild));
+            nodeOut.writeInt(node.routes.size());
+            for (RouteTrie.Route route : node.routes) {
+                nodeOut.writeInt(routeIds.get(route));
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(strings.values.size());
+            out.writeInt(routes.size());
+            out.writeInt(nodes.size());
+
+            int stringOffset = 0;
+            List<byte[]> encodedStrings = list();
+            for (String value : strings.values) {
+                byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+                encodedStrings.add(encoded);
+                out.writeInt(stringOffset);
+                stringOffset += 4 + encoded.length;
+            }
+            for (byte[] encoded : encodedStrings) {
+                out.writeInt(encoded.length);
+                out.write(encoded);
+            }
+
+            routeBytes.writeTo(out);
+
+            for (int offset : nodeOffsets) {
+                out.writeInt(offset);
+            }
+            nodeBytes.writeTo(out);
+        }
+    }
+
+    public static Reader open(File indexFile) throws IOException {
+        try (FileChannel channel = new RandomAccessFile(indexFile, "r").getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("'" + indexFile.getAbsolutePath() + "' is not a supported route index file");
+            }
+            return new Reader(buffer);
+        }
+    }
+
+    public static class Reader {
+        private final ByteBuffer buffer;
+        private final int stringCount;
+        private final int routeCount;
+        private final int nodeCount;
+        private final int stringOffsetsPos;
+        private final int stringDataPos;
+        private final int routesPos;
+        private final int nodeOffsetsPos;
+        private final int nodeDataPos;
+
+        private Reader(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.stringCount = buffer.getInt(8);
+            this.routeCount = buffer.getInt(12);
+            this.nodeCount = buffer.getInt(16);
+
+            stringOffsetsPos = HEADER_SIZE;
+            stringDataPos = stringOffsetsPos + stringCount * 4;
+
+            int pos = stringDataPos;
+            for (int i = 0; i < stringCount; i++) {
+                pos += 4 + buffer.getInt(pos);
+            }
+            routesPos = pos;
+            nodeOffsetsPos = routesPos + routeCount * ROUTE_SIZE;
+            nodeDataPos = nodeOffsetsPos + nodeCount * 4;
+        }
+
+        public int getRouteCount() {
+            return routeCount;
+        }
+
+        //  Matches the same way as RouteTrie.match, including the fallback for nodes without the HTTP method
+        public List<RouteTrie.Route> lookup(String httpMethod, String url) {
+            String[] segments = RouteTrie.splitPath(url);
+            int node = match(0, segments, 0, httpMethod);
+
+            List<RouteTrie.Route> result = list();
+            if (node >= 0) {
+                int pos = routeListPos(node);
+                int count = buffer.getInt(pos);
+                for (int i = 0; i < count; i++) {
+                    RouteTrie.Route route = readRoute(buffer.getInt(pos + 4 + i * 4));
+                    if (RouteTrie.hasMethod(route, httpMethod)) {
+                        result.add(route);
+                    }
+                }
+            }
+            return result;
+        }
+
+        private int match(int node, String[] segments, int index, String httpMethod) {
+            int pos = nodePos(node);
+            int literalCount = buffer.getInt(pos);
+            int childrenPos = pos + 4;
+            int wildcardChild = buffer.getInt(childrenPos + literalCount * 8);
+            int catchAllChild = buffer.getInt(childrenPos + literalCount * 8 + 4);
+
+            if (index == segments.length) {
+                if (hasRoutes(node, httpMethod)) {
+                    return node;
+                }
+                return catchAllChild >= 0 && hasRoutes(catchAllChild, httpMethod) ? catchAllChild : -1;
+            }
+
+            int literalChild = findLiteralChild(childrenPos, literalCount, segments[index]);
+            if (literalChild >= 0) {
+                int result = match(literalChild, segments, index + 1, httpMethod);
+                if (result >= 0) {
+                    return result;
+                }
+            }
+
+            if (wildcardChild >= 0) {
+                int result = match(wildcardChild, segments, index + 1, httpMethod);
+                if (result >= 0) {
+                    return result;
+                }
+            }
+
+            if (catchAllChild >= 0 && hasRoutes(catchAllChild, httpMethod)) {
+                return catchAllChild;
+            }
+
+            return -1;
+        }
+
+        private int findLiteralChild(int childrenPos, int literalCount, String segment) {
+            int low = 0;
+            int high = literalCount - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int comparison = readString(buffer.getInt(childrenPos + mid * 8)).compareTo(segment);
+                if (comparison < 0) {
+                    low = mid + 1;
+                } else if (comparison > 0) {
+                    high = mid - 1;
+                } else {
+                    return buffer.getInt(childrenPos + mid * 8 + 4);
+                }
+            }
+            return -1;
+        }
+
+        private int nodePos(int node) {
+            return nodeDataPos + buffer.getInt(nodeOffsetsPos + node * 4);
+        }
+
+        private int routeListPos(int node) {
+            int pos = nodePos(node);
+            return pos + 4 + buffer.getInt(pos) * 8 + 8;
+        }
+
+        private boolean hasRoutes(int node, String httpMethod) {
+            int pos = routeListPos(node);
+            int count = buffer.getInt(pos);
+            if (httpMethod == null) {
+                return count > 0;
+            }
+            for (int i = 0; i < count; i++) {
+                int route = buffer.getInt(pos + 4 + i * 4);
+                String routeMethod = readString(buffer.getInt(routesPos + route * ROUTE_SIZE + 4));
+                if (httpMethod.equalsIgnoreCase(routeMethod)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private RouteTrie.Route readRoute(int route) {
+            int pos = routesPos + route * ROUTE_SIZE;
+            RouteTrie.Route result = new RouteTrie.Route();
+            result.project = readString(buffer.getInt(pos));
+            result.httpMethod = readString(buffer.getInt(pos + 4));
+            result.urlPath = readString(buffer.getInt(pos + 8));
+            result.filePath = readString(buffer.getInt(pos + 12));
+            result.startingLineNumber = buffer.getInt(pos + 16);
+            result.endingLineNumber = buffer.getInt(pos + 20);
+            return result;
+        }
+
+        private String readString(int index) {
+            if (index < 0) {
+                return null;
+            }
+            int pos = stringDataPos + buffer.getInt(stringOffsetsPos + index * 4);
+            byte[] bytes = new byte[buffer.getInt(pos)];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buffer.get(pos + 4 + i);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static class StringTable {
+        final List<String> values = list();
+        final Map<String, Integer> indexes = map();
+
+        int indexOf(String value) {
+            if (value == null) {
+                return -1;
+            }
+            Integer index = indexes.get(value);
+            if (index == null) {
+                index = values.size();
+                values.add(value);
+                indexes.put(value, index);
+            }
+            return index;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+////////////////////////////////////////////////////////////////////////
+//
+//     Copyright (C) 2018 Applied Visions - http://securedecisions.com
+//
+//     The contents of this file are subject to the Mozilla Public License
+//     Version 2.0 (the "License"); you may not use this file except in
+//     compliance with the License. You may obtain a copy of the License at
+//     http://www.mozilla.org/MPL/
+//
+//     Software distributed under the License is distributed on an "AS IS"
+//     basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+//     License for the specific language governing rights and limitations
+//     under the License.
+//
+//     This material is based on research sponsored by the Department of Homeland
+//     Security (DHS) Science and Technology Directorate, Cyber Security Division
+//     (DHS S&T/CSD) via contract number HHSP233201600058C.
+//
+//     Contributor(s):
+//              Secure Decisions, a division of Applied Visions, Inc
+//
+////////////////////////////////////////////////////////////////////////
+
+package com.denimgroup.threadfix.cli.endpoints;
+
+import com.denimgroup.threadfix.data.interfaces.Endpoint;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static com.denimgroup.threadfix.CollectionUtils.list;
+import static com.denimgroup.threadfix.CollectionUtils.map;
+
+//  Alternative to the -json array of Endpoint.Info records which stores the endpoints as a tree of URL path
+//  segments, so that shared prefixes are only written once, and file paths in a table referenced by index:
+//
+//      {
+//          "format": "route-tree", "version": 1,
+//          "files": [ "src/main/java/UserController.java", ... ],
+//          "root": { "children": { "": { "children": { "users": { "endpoints": [ { "file": 0, ... } ] } } } } }
+//      }
+//
+//  Each endpoint holds the remaining fields of its Endpoint.Info. URL paths are split on every '/', so the
+//  leading '' segment and any empty segments are kept and paths are restored exactly.
+public class RouteTreeOutput {
+
+    static final String FORMAT_NAME = "route-tree";
+    static final int VERSION = 1;
+
+    //  Takes the JSON form of each Endpoint.Info, which is modified in place
+    public static ObjectNode build(Iterable<ObjectNode> endpointNodes, ObjectMapper mapper) {
+        ObjectNode result = mapper.createObjectNode();
+        result.put("format", FORMAT_NAME);
+        result.put("version", VERSION);
+        ArrayNode files = result.putArray("files");
+        ObjectNode root = result.putObject("root");
+
+        Map<String, Integer> fileIndexes = map();
+        for (ObjectNode endpoint : endpointNodes) {
+            JsonNode filePath = endpoint.get("filePath");
+            if (filePath != null && filePath.isTextual()) {
+                Integer fileIndex = fileIndexes.get(filePath.asText());
+                if (fileIndex == null) {
+                    fileIndex = fileIndexes.size();
+                    fileIndexes.put(filePath.asText(), fileIndex);
+                    files.add(filePath.asText());
+                }
+                endpoint.remove("filePath");
+                endpoint.put("file", fileIndex);
+            }
+
+            //  Endpoints without a URL path keep it as a field on the root
+            ObjectNode node = root;
+            JsonNode urlPath = endpoint.get("urlPath");
+            if (urlPath != null && urlPath.isTextual()) {
+                for (String segment : urlPath.asText().split("/", -1)) {
+                    ObjectNode children = node.has("children") ? (ObjectNode)node.get("children") : node.putObject("children");
+                    node = children.has(segment) ? (ObjectNode)children.get(segment) : children.putObject(segment);
+                }
+                endpoint.remove("urlPath");
+            }
+
+            ArrayNode endpoints = node.has("endpoints") ? (ArrayNode)node.get("endpoints") : node.putArray("endpoints");
+            endpoints.add(endpoint);
+        }
+
+        return result;
+    }
+
+    static boolean isRouteTree(JsonNode tree) {
+        return tree.isObject() && FORMAT_NAME.equals(tree.path("format").asText());
+    }
+
+    public static List<Endpoint.Info> read(JsonNode tree, ObjectMapper mapper) throws IOException {
+        List<Endpoint.Info> result = list();
+        for (ObjectNode endpoint : expand(tree)) {
+            result.add(mapper.convertValue(endpoint, Endpoint.Info.class));
+        }
+        return result;
+    }
+
+    //  Restores the JSON form of each Endpoint.Info, grouped by URL path
+    static List<ObjectNode> expand(JsonNode tree) throws IOException {
+        if (!isRouteTree(tree)) {
+            throw new IOException("Not a route tree");
+        }
+        if (tree.path("version").asInt() != VERSION) {
+            throw new IOException("Unsupported route tree version " + tree.path("version").asInt());
+        }
+
+        JsonNode files = tree.path("files");
+
+        //  Nodes are walked with an explicit stack since deeply nested routes could overflow the call stack
+        List<ObjectNode> result = list();
+        List<JsonNode> nodes = list();
+        List<String> paths = list();
+        nodes.add(tree.path("root"));
+        paths.add(null);
+
+        while (!nodes.isEmpty()) {
+            JsonNode node = nodes.remove(nodes.size() - 1);
+            String path = paths.remove(paths.size() - 1);
+
+            for (JsonNode endpoint : node.path("endpoints")) {
+                ObjectNode restored = ((ObjectNode)endpoint).deepCopy();
+                if (path != null) {
+                    restored.put("urlPath", path);
+                }
+                if (restored.has("file")) {
+                    restored.put("filePath", files.path(restored.get("file").asInt()).asText());
+                    restored.remove("file");
+                }
+                result.add(restored);
+            }
+
+            //  Pushed in reverse so that children are restored in the order they were written
+            List<Map.Entry<String, JsonNode>> children = list();
+            Iterator<Map.Entry<String, JsonNode>> fields = node.path("children").fields();
+            while (fields.hasNext()) {
+                children.add(fields.next());
+            }
+            for (int i = children.size() - 1; i >= 0; i--) {
+                Map.Entry<String, JsonNode> child = children.get(i);
+                nodes.add(child.getValue());
+                paths.add(path == null ? child.getKey() : path + "/" + child.getKey());
+            }
+        }
+
+        return result;
+    }
+}
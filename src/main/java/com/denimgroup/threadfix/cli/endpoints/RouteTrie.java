@@ -0,0 +1,234 @@
+////////////////////////////////////////////////////////////////////////
+//
+//     Copyright (C) 2018 Applied Visions - http://securedecisions.com
+//
+//     The contents of this file are subject to the Mozilla Public License
+//     Version 2.0 (the "License"); you may not use this file except in
+//     compliance with the License. You may obtain a copy of the License at
+//     http://www.mozilla.org/MPL/
+//
+//     Software distributed under the License is distributed on an "AS IS"
+//     basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+//     License for the specific language governing rights and limitations
+//     under the License.
+//
+//     This material is based on research sponsored by the Department of Homeland
+//     Security (DHS) Science and Technology Directorate, Cyber Security Division
+//     (DHS S&T/CSD) via contract number HHSP233201600058C.
+//
+//     Contributor(s):
+//              Secure Decisions, a division of Applied Visions, Inc
+//
+////////////////////////////////////////////////////////////////////////
+
+package com.denimgroup.threadfix.cli.endpoints;
+
+import com.denimgroup.threadfix.data.entities.WildcardEndpointPathNode;
+import com.denimgroup.threadfix.data.interfaces.Endpoint;
+import com.denimgroup.threadfix.data.interfaces.EndpointPathNode;
+import com.denimgroup.threadfix.framework.util.EndpointUtil;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.denimgroup.threadfix.CollectionUtils.list;
+
+//  Path-segment prefix tree over detected endpoints. Literal segments are matched exactly, while segments that
+//  correspond to a WildcardEndpointPathNode (or use a route parameter syntax such as "{id}" or ":id") match any
+//  single segment. Glob segments such as "**" or "*path" match the rest of the URL.
+public class RouteTrie {
+
+    public static class Route {
+        public String project;
+        public String httpMethod;
+        public String urlPath;
+        public String filePath;
+        public int startingLineNumber;
+        public int endingLineNumber;
+
+        @Override
+        public String toString() {
+            return httpMethod + ": " + urlPath + "; FILE=" + filePath + " (lines '" + startingLineNumber + "'-'" + endingLineNumber + "')" +
+                (project != null ? "; PROJECT=" + project : "");
+        }
+    }
+
+    static class Node {
+        //  Sorted so that the memory-mapped index can binary-search its children
+        final Map<String, Node> literalChildren = new TreeMap<>();
+        Node wildcardChild;
+        Node catchAllChild;
+        final List<Route> routes = list();
+    }
+
+    private final Node root = new Node();
+    private final List<Route> routes = list();
+
+    public void addAll(String project, Collection<Endpoint> endpoints) {
+        for (Endpoint endpoint : EndpointUtil.flattenWithVariants(endpoints)) {
+            add(project, endpoint);
+        }
+    }
+
+    public Route add(String project, Endpoint endpoint) {
+        Route route = new Route();
+        route.project = project;
+        route.httpMethod = endpoint.getHttpMethod();
+        route.urlPath = endpoint.getUrlPath();
+        route.filePath = endpoint.getFilePath();
+        route.startingLineNumber = endpoint.getStartingLineNumber();
+        route.endingLineNumber = endpoint.getEndingLineNumber();
+
+        String[] segments = splitPath(route.urlPath);
+        List<EndpointPathNode> pathNodes = endpoint.getUrlPathNodes();
+        boolean useNodes = pathNodes != null && pathNodes.size() == segments.length;
+
+        Node current = root;
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            if (isCatchAllSegment(segment)) {
+                if (current.catchAllChild == null) {
+                    current.catchAllChild = new Node();
+                }
+                current = current.catchAllChild;
+                break;
+            } else if (isWildcardSegment(segment) || (useNodes && pathNodes.get(i) instanceof WildcardEndpointPathNode)) {
+                if (current.wildcardChild == null) {
+                    current.wildcardChild = new Node();
+                }
+                current = current.wildcardChild;
+            } else {
+                Node child = current.literalChildren.get(segment);
+                if (child == null) {
+                    child = new Node();
+                    current.literalChildren.put(segment, child);
+                }
+                current = child;
+            }
+        }
+
+        current.routes.add(route);
+        routes.add(route);
+        return route;
+    }
+
+    //  Returns the routes for the HTTP method of the most specific node matching the URL, preferring literal
+    //  segments over wildcards and wildcards over globs, or an empty list if nothing matches. A node without any
+    //  route for the method doesn't match, so that ie "POST /users/new" falls back from a GET-only "/users/new"
+    //  to "/users/{id}". A null method matches routes of any method.
+    public List<Route> match(String httpMethod, String url) {
+        String[] segments = splitPath(url);
+        Node node = match(root, segments, 0, httpMethod);
+        if (node == null) {
+            return Collections.emptyList();
+        }
+
+        List<Route> result = list();
+        for (Route route : node.routes) {
+            if (hasMethod(route, httpMethod)) {
+                result.add(route);
+            }
+        }
+        return result;
+    }
+
+    private static Node match(Node node, String[] segments, int index, String httpMethod) {
+        if (index == segments.length) {
+            if (hasRoutes(node, httpMethod)) {
+                return node;
+            }
+            //  A glob can also match an empty remainder
+            return node.catchAllChild != null && hasRoutes(node.catchAllChild, httpMethod) ? node.catchAllChild : null;
+        }
+
+        Node literal = node.literalChildren.get(segments[index]);
+        if (literal != null) {
+            Node result = match(literal, segments, index + 1, httpMethod);
+            if (result != null) {
+                return result;
+            }
+        }
+
+        if (node.wildcardChild != null) {
+            Node result = match(node.wildcardChild, segments, index + 1, httpMethod);
+            if (result != null) {
+                return result;
+            }
+        }
+
+        if (node.catchAllChild != null && hasRoutes(node.catchAllChild, httpMethod)) {
+            return node.catchAllChild;
+        }
+
+        return null;
+    }
+
+    private static boolean hasRoutes(Node node, String httpMethod) {
+        for (Route route : node.routes) {
+            if (hasMethod(route, httpMethod)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean hasMethod(Route route, String httpMethod) {
+        return httpMethod == null || httpMethod.equalsIgnoreCase(route.httpMethod);
+    }
+
+    Node getRoot() {
+        return root;
+    }
+
+    public List<Route> getRoutes() {
+        return routes;
+    }
+
+    //  Splits a URL or route into its path segments, ignoring any scheme, host, query string and fragment
+    static String[] splitPath(String url) {
+        String path = url;
+
+        int schemeEnd = path.indexOf("://");
+        if (schemeEnd >= 0) {
+            int pathStart = path.indexOf('/', schemeEnd + 3);
+            path = pathStart < 0 ? "" : path.substring(pathStart);
+        }
+
+        int queryStart = path.indexOf('?');
+        if (queryStart >= 0) {
+            path = path.substring(0, queryStart);
+        }
+        int fragmentStart = path.indexOf('#');
+        if (fragmentStart >= 0) {
+            path = path.substring(0, fragmentStart);
+        }
+
+        List<String> segments = list();
+        int start = 0;
+        for (int i = 0; i <= path.length(); i++) {
+            if (i == path.length() || path.charAt(i) == '/') {
+                if (i > start) {
+                    segments.add(path.substring(start, i));
+                }
+                start = i + 1;
+            }
+        }
+        return segments.toArray(new String[segments.size()]);
+    }
+
+    static boolean isCatchAllSegment(String segment) {
+        return segment.equals("**") || (segment.startsWith("*") && segment.length() > 1);
+    }
+
+    static boolean isWildcardSegment(String segment) {
+        return segment.equals("*") ||
+            segment.startsWith(":") ||
+            segment.contains("{") ||
+            segment.contains("(") ||
+            segment.contains("[") ||
+            segment.contains("<");
+    }
+}
@@ -0,0 +1,144 @@
+////////////////////////////////////////////////////////////////////////
+//
+//     Copyright (C) 2018 Applied Visions - http://securedecisions.com
+//
+//     The contents of this file are subject to the Mozilla Public License
+//     Version 2.0 (the "License"); you may not use this file except in
+//     compliance with the License. You may obtain a copy of the License at
+//     http://www.mozilla.org/MPL/
+//
+//     Software distributed under the License is distributed on an "AS IS"
+//     basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+//     License for the specific language governing rights and limitations
+//     under the License.
+//
+//     This material is based on research sponsored by the Department of Homeland
+//     Security (DHS) Science and Technology Directorate, Cyber Security Division
+//     (DHS S&T/CSD) via contract number HHSP233201600058C.
+//
+//     Contributor(s):
+//              Secure Decisions, a division of Applied Visions, Inc
+//
+////////////////////////////////////////////////////////////////////////
+package com.denimgroup.threadfix.cli.endpoints;
+
+import com.denimgroup.threadfix.data.interfaces.Endpoint;
+import com.denimgroup.threadfix.framework.engine.full.EndpointSerialization;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.io.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static com.denimgroup.threadfix.CollectionUtils.list;
+import static com.denimgroup.threadfix.CollectionUtils.map;
+
+//  Append-only record of the jobs completed by a batch run, with one JSON line per job, so that an interrupted
+//  run can be resumed. The endpoints of each job are stored in a separate file next to the journal, which is
+//  synced to disk along with the journal line before the job is considered complete.
+public class RunJournal {
+
+    private static Logger logger = LogManager.getLogger(RunJournal.class);
+
+    public static final String COMPLETED = "completed";
+    public static final String TIMED_OUT = "timed-out";
+    public static final String FAILED = "failed";
+
+    public static class Entry {
+        public String key;
+        public String status;
+        public String resultFile;
+        public String details;
+        public JobCounters counters = new JobCounters();
+    }
+
+    private final File journalFile;
+    private final File resultsDirectory;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, Entry> completedJobs = map();
+
+    //  Unless resuming, any previous journal and results are discarded
+    public RunJournal(File journalFile, boolean resume) throws IOException {
+        this.journalFile = journalFile.getAbsoluteFile();
+        this.resultsDirectory = new File(this.journalFile.getPath() + ".results");
+
+        if (resume && journalFile.isFile()) {
+            for (String line : FileUtils.readLines(journalFile, StandardCharsets.UTF_8)) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                try {
+                    Entry entry = mapper.readValue(line, Entry.class);
+                    //  Jobs that failed or timed out are run again, and a later line for the same job wins
+                    if (COMPLETED.equals(entry.status)) {
+                        completedJobs.put(entry.key, entry);
+                    } else {
+                        completedJobs.remove(entry.key);
+                    }
+                } catch (IOException e) {
+                    //  Most likely the last line, if the run died while it was being written
+                    logger.warn("Ignoring unreadable journal line: " + line);
+                }
+            }
+        } else {
+            FileUtils.deleteQuietly(journalFile);
+            FileUtils.deleteQuietly(resultsDirectory);
+        }
+
+        resultsDirectory.mkdirs();
+    }
+
+    public int getNumCompletedJobs() {
+        return completedJobs.size();
+    }
+
+    public synchronized Entry getCompletedEntry(EndpointJob job) {
+        return completedJobs.get(job.getKey());
+    }
+
+    public List<Endpoint> loadEndpoints(Entry entry) throws IOException {
+        List<Endpoint> endpoints = list();
+        if (entry.resultFile != null) {
+            String serialized = FileUtils.readFileToString(new File(resultsDirectory, entry.resultFile), StandardCharsets.UTF_8);
+            Collections.addAll(endpoints, EndpointSerialization.deserializeAll(serialized));
+        }
+        return endpoints;
+    }
+
+    public synchronized void append(EndpointJob job, String status, List<Endpoint> endpoints, JobCounters counters, String details) {
+        Entry entry = new Entry();
+        entry.key = job.getKey();
+        entry.status = status;
+        entry.details = details;
+        entry.counters = counters;
+
+        try {
+            if (endpoints != null) {
+                entry.resultFile = Hashing.sha1Hex(entry.key) + ".json";
+                writeSynced(new File(resultsDirectory, entry.resultFile), EndpointSerialization.serializeAll(endpoints));
+            }
+
+            try (FileOutputStream out = new FileOutputStream(journalFile, true)) {
+                out.write((mapper.writeValueAsString(entry) + "\n").getBytes(StandardCharsets.UTF_8));
+                out.getFD().sync();
+            }
+            completedJobs.put(entry.key, entry);
+        } catch (IOException e) {
+            logger.warn("Unable to record '" + job.sourceCodePath.getAbsolutePath() + "' in the journal", e);
+        }
+    }
+
+    private static void writeSynced(File file, String contents) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(contents.getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+    }
+}
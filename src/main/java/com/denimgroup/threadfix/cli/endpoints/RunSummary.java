@@ -0,0 +1,58 @@
+////////////////////////////////////////////////////////////////////////
+//
+//     Copyright (C) 2018 Applied Visions - http://securedecisions.com
+//
+//     The contents of this file are subject to the Mozilla Public License
+//     Version 2.0 (the "License"); you may not use this file except in
+//     compliance with the License. You may obtain a copy of the License at
+//     http://www.mozilla.org/MPL/
+//
+//     Software distributed under the License is distributed on an "AS IS"
+//     basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+//     License for the specific language governing rights and limitations
+//     under the License.
+//
+//     This material is based on research sponsored by the Department of Homeland
+//     Security (DHS) Science and Technology Directorate, Cyber Security Division
+//     (DHS S&T/CSD) via contract number HHSP233201600058C.
+//
+//     Contributor(s):
+//              Secure Decisions, a division of Applied Visions, Inc
+//
+////////////////////////////////////////////////////////////////////////
+package com.denimgroup.threadfix.cli.endpoints;
+
+import java.util.List;
+
+import static com.denimgroup.threadfix.CollectionUtils.list;
+
+//  The summary counters of a run, written next to the output file of each shard so that -merge can combine them
+public class RunSummary {
+    public int numProjects;
+    public int numProjectsWithEndpoints;
+    public int numProjectsWithDuplicates;
+
+    public int totalDetectedEndpoints;
+    public int totalDistinctEndpoints;
+    public int totalDetectedParameters;
+    public int totalDistinctParameters;
+
+    public List<String> projectsMissingEndpoints = list();
+    public List<String> projectsTimedOut = list();
+    public List<String> projectsFailed = list();
+
+    public void add(RunSummary other) {
+        numProjects += other.numProjects;
+        numProjectsWithEndpoints += other.numProjectsWithEndpoints;
+        numProjectsWithDuplicates += other.numProjectsWithDuplicates;
+
+        totalDetectedEndpoints += other.totalDetectedEndpoints;
+        totalDistinctEndpoints += other.totalDistinctEndpoints;
+        totalDetectedParameters += other.totalDetectedParameters;
+        totalDistinctParameters += other.totalDistinctParameters;
+
+        projectsMissingEndpoints.addAll(other.projectsMissingEndpoints);
+        projectsTimedOut.addAll(other.projectsTimedOut);
+        projectsFailed.addAll(other.projectsFailed);
+    }
+}
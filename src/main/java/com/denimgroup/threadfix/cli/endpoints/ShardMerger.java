@@ -0,0 +1,103 @@
+////////////////////////////////////////////////////////////////////////
+//
+//     Copyright (C) 2018 Applied Visions - http://securedecisions.com
+//
+//     The contents of this file are subject to the Mozilla Public License
+//     Version 2.0 (the "License"); you may not use this file except in
+//     compliance with the License. You may obtain a copy of the License at
+//     http://www.mozilla.org/MPL/
+//
+//     Software distributed under the License is distributed on an "AS IS"
+//     basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+//     License for the specific language governing rights and limitations
+//     under the License.
+//
+//     This material is based on research sponsored by the Department of Homeland
+//     Security (DHS) Science and Technology Directorate, Cyber Security Division
+//     (DHS S&T/CSD) via contract number HHSP233201600058C.
+//
+//     Contributor(s):
+//              Secure Decisions, a division of Applied Visions, Inc
+//
+////////////////////////////////////////////////////////////////////////
+package com.denimgroup.threadfix.cli.endpoints;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+//  Combines the JSON output (-json or -full-json) and summary counters of several -shard runs. Endpoints are
+//  copied one at a time from each shard's output, so no shard is ever fully loaded into memory, except for
+//  -route-tree and -deduplicate outputs which are expanded back into a flat array of endpoints.
+public class ShardMerger {
+
+    static final String SUMMARY_SUFFIX = ".summary.json";
+
+    //  Writes the merged endpoints to the output file, or to stdout if no output file is given, and returns the
+    //  merged summary counters of all shards that have a summary file
+    public static RunSummary merge(List<String> shardOutputPaths, String outputFilePath) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        JsonFactory factory = mapper.getFactory();
+        RunSummary summary = new RunSummary();
+
+        JsonGenerator generator = outputFilePath != null ?
+            factory.createGenerator(new File(outputFilePath), JsonEncoding.UTF8) :
+            factory.createGenerator(System.out);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+        try {
+            generator.writeStartArray();
+            for (String shardOutputPath : shardOutputPaths) {
+                try (JsonParser parser = factory.createParser(new File(shardOutputPath))) {
+                    JsonToken firstToken = parser.nextToken();
+                    if (firstToken == JsonToken.START_OBJECT) {
+                        //  -route-tree and -deduplicate outputs have to be loaded whole to be expanded
+                        JsonNode tree = mapper.readTree(parser);
+                        if (RouteTreeOutput.isRouteTree(tree)) {
+                            for (ObjectNode endpoint : RouteTreeOutput.expand(tree)) {
+                                mapper.writeTree(generator, endpoint);
+                            }
+                        } else if (DeduplicatedOutput.isDeduplicated(tree)) {
+                            for (JsonNode endpoint : DeduplicatedOutput.expand(tree)) {
+                                mapper.writeTree(generator, endpoint);
+                            }
+                        } else {
+                            throw new IOException("'" + shardOutputPath + "' does not contain a JSON array, route tree or deduplicated list of endpoints");
+                        }
+                    } else if (firstToken == JsonToken.START_ARRAY) {
+                        while (parser.nextToken() != JsonToken.END_ARRAY) {
+                            generator.copyCurrentStructure(parser);
+                        }
+                    } else {
+                        throw new IOException("'" + shardOutputPath + "' does not contain a JSON array, route tree or deduplicated list of endpoints");
+                    }
+                }
+
+                File summaryFile = new File(shardOutputPath + SUMMARY_SUFFIX);
+                if (summaryFile.isFile()) {
+                    summary.add(mapper.readValue(summaryFile, RunSummary.class));
+                }
+            }
+            generator.writeEndArray();
+        } finally {
+            generator.close();
+        }
+
+        if (outputFilePath != null) {
+            mapper.writeValue(new File(outputFilePath + SUMMARY_SUFFIX), summary);
+        } else {
+            System.out.println();
+        }
+
+        return summary;
+    }
+}
@@ -0,0 +1,263 @@
+////////////////////////////////////////////////////////////////////////
+//
+//     Copyright (C) 2018 Applied Visions - http://securedecisions.com
+//
+//     The contents of this file are subject to the Mozilla Public License
+//     Version 2.0 (the "License"); you may not use this file except in
+//     compliance with the License. You may obtain a copy of the License at
+//     http://www.mozilla.org/MPL/
+//
+//     Software distributed under the License is distributed on an "AS IS"
+//     basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+//     License for the specific language governing rights and limitations
+//     under the License.
+//
+//     This material is based on research sponsored by the Department of Homeland
+//     Security (DHS) Science and Technology Directorate, Cyber Security Division
+//     (DHS S&T/CSD) via contract number HHSP233201600058C.
+//
+//     Contributor(s):
+//              Secure Decisions, a division of Applied Visions, Inc
+//
+////////////////////////////////////////////////////////////////////////
+
+package com.denimgroup.threadfix.cli.endpoints;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.denimgroup.threadfix.CollectionUtils.list;
+
+//  Include/exclude globs for the files of a project, matched against paths relative to the project root
+//  using '/' as the separator. A file is scanned if it, or a folder containing it, matches an include (or
+//  there are no includes), and neither it nor any containing folder matches an exclude. A leading '**/'
+//  also matches at the project root, so '**/test/**' excludes both 'test/a.java' and 'src/test/a.java'.
+public class SourceFilter {
+
+    private static Logger logger = LogManager.getLogger(SourceFilter.class);
+
+    //  Copying instead of linking costs a full copy of the tree on every scan, so it is reported, but only once
+    private static final AtomicBoolean isCopyReported = new AtomicBoolean(false);
+
+    public List<String> includes = list();
+    public List<String> excludes = list();
+
+    private List<PathMatcher> includeMatchers = null;
+    private List<PathMatcher> excludeMatchers = null;
+
+    //  A view of a project with the filtered files removed
+    public static class PrunedTree {
+        public File root;
+        public long numSkippedFiles = 0;
+        public long numSkippedBytes = 0;
+        //  The files that were kept
+        public long numFiles = 0;
+        public long numBytes = 0;
+        private boolean isStaged = false;
+
+        //  Deletes the staged tree, if one was created
+        public void release() {
+            if (isStaged) {
+                FileUtils.deleteQuietly(root);
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return includes.isEmpty() && excludes.isEmpty();
+    }
+
+    //  Adds one or more comma-separated globs, ignoring commas within {...} alternatives
+    public void addIncludes(String globs) {
+        includes.addAll(splitGlobs(globs));
+        includeMatchers = null;
+    }
+
+    public void addExcludes(String globs) {
+        excludes.addAll(splitGlobs(globs));
+        excludeMatchers = null;
+    }
+
+    public SourceFilter copy() {
+        SourceFilter result = new SourceFilter();
+        result.includes.addAll(includes);
+        result.excludes.addAll(excludes);
+        return result;
+    }
+
+    public synchronized boolean accepts(String relativePath) {
+        if (includeMatchers == null || excludeMatchers == null) {
+            includeMatchers = compile(includes);
+            excludeMatchers = compile(excludes);
+        }
+
+        return (includeMatchers.isEmpty() || matchesPathOrParent(includeMatchers, relativePath)) &&
+            !matchesPathOrParent(excludeMatchers, relativePath);
+    }
+
+    //  Builds a pruned copy of a project folder in a temporary location. Files are hard-linked where possible
+    //  and copied otherwise. Links are not symbolic since parsers that canonicalize paths would resolve them
+    //  back to the original tree, and report file paths outside of the scanned root.
+    public PrunedTree stage(File sourceRoot) throws IOException {
+        final Path source = sourceRoot.toPath();
+        final Path target = createStagingDirectory(source);
+
+        final PrunedTree result = new PrunedTree();
+        result.root = target.toFile();
+        result.isStaged = true;
+
+        try {
+            Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    String relativePath = getRelativePath(source, file);
+                    if (!accepts(relativePath)) {
+                        result.numSkippedFiles++;
+                        result.numSkippedBytes += attrs.size();
+                        return FileVisitResult.CONTINUE;
+                    }
+                    result.numFiles++;
+                    result.numBytes += attrs.size();
+
+                    Path targetFile = target.resolve(relativePath);
+                    Files.createDirectories(targetFile.getParent());
+                    try {
+                        Files.createLink(targetFile, file);
+                    } catch (IOException | UnsupportedOperationException e) {
+                        //  ie a file system without hard links
+                        if (isCopyReported.compareAndSet(false, true)) {
+                            EndpointMain.println("Unable to hard-link files into the -include/-exclude copy of '" + source +
+                                "', copying them instead: " + e);
+                        }
+                        Files.copy(file, targetFile, StandardCopyOption.COPY_ATTRIBUTES);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    logger.warn("Unable to read " + file, exc);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            result.release();
+            throw e;
+        }
+
+        return result;
+    }
+
+    //  Hard links only work within one file system, so a project on a different one than the temp folder, ie an
+    //  NFS mirror, is staged next to itself instead, as long as its parent folder is writable
+    private static Path createStagingDirectory(Path source) throws IOException {
+        Path tempDirectory = Paths.get(System.getProperty("java.io.tmpdir"));
+        Path parent = source.toAbsolutePath().getParent();
+        if (parent != null && !Files.getFileStore(source).equals(Files.getFileStore(tempDirectory))) {
+            try {
+                return Files.createTempDirectory(parent, ".asd-pruned-");
+            } catch (IOException e) {
+                logger.warn("Unable to stage " + source + " next to itself, using the temp folder", e);
+            }
+        }
+        return Files.createTempDirectory("asd-pruned-");
+    }
+
+    //  Deletes the filtered files from a folder that is already a private copy, ie an extracted archive
+    public PrunedTree pruneInPlace(File extractedRoot) throws IOException {
+        final Path root = extractedRoot.toPath();
+
+        final PrunedTree result = new PrunedTree();
+        result.root = extractedRoot;
+
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (!accepts(getRelativePath(root, file))) {
+                    result.numSkippedFiles++;
+                    result.numSkippedBytes += attrs.size();
+                    Files.delete(file);
+                } else {
+                    result.numFiles++;
+                    result.numBytes += attrs.size();
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "include=" + includes + ",exclude=" + excludes;
+    }
+
+    static String getRelativePath(Path root, Path file) {
+        return root.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    private static boolean matchesPathOrParent(List<PathMatcher> matchers, String relativePath) {
+        String path = relativePath;
+        while (true) {
+            Path asPath = Paths.get(path);
+            for (PathMatcher matcher : matchers) {
+                if (matcher.matches(asPath)) {
+                    return true;
+                }
+            }
+
+            int lastSeparator = path.lastIndexOf('/');
+            if (lastSeparator < 0) {
+                return false;
+            }
+            path = path.substring(0, lastSeparator);
+        }
+    }
+
+    private static List<PathMatcher> compile(List<String> globs) {
+        FileSystem fileSystem = FileSystems.getDefault();
+        List<PathMatcher> result = list();
+        for (String glob : globs) {
+            result.add(fileSystem.getPathMatcher("glob:" + glob));
+            if (glob.startsWith("**/")) {
+                result.add(fileSystem.getPathMatcher("glob:" + glob.substring(3)));
+            }
+        }
+        return result;
+    }
+
+    private static List<String> splitGlobs(String globs) {
+        List<String> result = list();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < globs.length(); i++) {
+            char c = globs.charAt(i);
+            if (c == '{') {
+                depth++;
+            } else if (c == '}' && depth > 0) {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                addGlob(result, globs.substring(start, i));
+                start = i + 1;
+            }
+        }
+        addGlob(result, globs.substring(start));
+        return result;
+    }
+
+    private static void addGlob(List<String> globs, String glob) {
+        glob = glob.trim();
+        if (!glob.isEmpty()) {
+            globs.add(glob);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+////////////////////////////////////////////////////////////////////////
+//
+//     Copyright (C) 2018 Applied Visions - http://securedecisions.com
+//
+//     The contents of this file are subject to the Mozilla Public License
+//     Version 2.0 (the "License"); you may not use this file except in
+//     compliance with the License. You may obtain a copy of the License at
+//     http://www.mozilla.org/MPL/
+//
+//     Software distributed under the License is distributed on an "AS IS"
+//     basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+//     License for the specific language governing rights and limitations
+//     under the License.
+//
+//     This material is based on research sponsored by the Department of Homeland
+//     Security (DHS) Science and Technology Directorate, Cyber Security Division
+//     (DHS S&T/CSD) via contract number HHSP233201600058C.
+//
+//     Contributor(s):
+//              Secure Decisions, a division of Applied Visions, Inc
+//
+////////////////////////////////////////////////////////////////////////
+
+package com.denimgroup.threadfix.cli.endpoints;
+
+import com.denimgroup.threadfix.data.enums.FrameworkType;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+//  Reads the source files of a project on a pool of threads while it is being parsed, so that the parsers
+//  find them in the OS page cache instead of waiting on a slow (ie network) file system for each one. Files
+//  are queued in the order they're found, which is roughly the order the parsers will read them in.
+public class SourcePrefetcher {
+
+    private static Logger logger = LogManager.getLogger(SourcePrefetcher.class);
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    public static class Stats {
+        public long numQueuedFiles;
+        public long numFiles;
+        public long numBytes;
+        public long elapsedMillis;
+        //  Whether every queued file was read before prefetching was stopped
+        public boolean completed;
+
+        public double getMegabytesPerSecond() {
+            return elapsedMillis == 0 ? 0 : (numBytes / (1024.0 * 1024.0)) / (elapsedMillis / 1000.0);
+        }
+    }
+
+    private static final ThreadLocal<ByteBuffer> readBuffer = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    private final int numThreads;
+    private ExecutorService readers;
+
+    private final AtomicLong numQueuedFiles = new AtomicLong();
+    private final AtomicLong numFiles = new AtomicLong();
+    private final AtomicLong numBytes = new AtomicLong();
+    private final AtomicLong numPendingFiles = new AtomicLong();
+    private final AtomicLong finishedAt = new AtomicLong();
+    private volatile boolean isWalkFinished = false;
+    private volatile boolean isStopped = false;
+    private long startedAt;
+
+    public SourcePrefetcher(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    public void start(final File sourceRoot, Collection<FrameworkType> frameworkTypes) {
+        final Set<FrameworkType> relevantTypes = new HashSet<>(frameworkTypes);
+        final AtomicInteger threadCount = new AtomicInteger();
+
+        startedAt = System.nanoTime();
+        readers = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "prefetch-" + threadCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        Thread walker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    queueFiles(sourceRoot.toPath(), relevantTypes);
+                } catch (IOException e) {
+                    logger.warn("Unable to list files to prefetch in " + sourceRoot.getAbsolutePath(), e);
+                } finally {
+                    isWalkFinished = true;
+                    checkFinished();
+                }
+            }
+        }, "prefetch-walker");
+        walker.setDaemon(true);
+        walker.start();
+    }
+
+    //  Stops reading any remaining files, and returns what was read so far
+    public Stats stop() {
+        isStopped = true;
+        readers.shutdownNow();
+
+        Stats stats = new Stats();
+        stats.numQueuedFiles = numQueuedFiles.get();
+        stats.numFiles = numFiles.get();
+        stats.numBytes = numBytes.get();
+        stats.completed = finishedAt.get() != 0;
+        stats.elapsedMillis = ((stats.completed ? finishedAt.get() : System.nanoTime()) - startedAt) / 1000000;
+        return stats;
+    }
+
+    private void queueFiles(Path root, final Set<FrameworkType> relevantTypes) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (isStopped) {
+                    return FileVisitResult.TERMINATE;
+                }
+                if (dir.getFileName() != null && dir.getFileName().toString().equals(".git")) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file, BasicFileAttributes attrs) {
+                if (isStopped) {
+                    return FileVisitResult.TERMINATE;
+                }
+                if (!isRelevant(file, relevantTypes)) {
+                    return FileVisitResult.CONTINUE;
+                }
+
+                numQueuedFiles.incrementAndGet();
+                numPendingFiles.incrementAndGet();
+                try {
+                    readers.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                readFile(file);
+                            } finally {
+                                numPendingFiles.decrementAndGet();
+                                checkFinished();
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    //  Stopped while walking
+                    return FileVisitResult.TERMINATE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void readFile(Path file) {
+        if (isStopped) {
+            return;
+        }
+
+        ByteBuffer buffer = readBuffer.get();
+        long fileBytes = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            int read;
+            do {
+                buffer.clear();
+                read = channel.read(buffer);
+                if (read > 0) {
+                    fileBytes += read;
+                }
+            } while (read >= 0 && !isStopped);
+        } catch (IOException e) {
+            //  Including ClosedByInterruptException when stopped, the parsers will report unreadable files
+            return;
+        }
+
+        numFiles.incrementAndGet();
+        numBytes.addAndGet(fileBytes);
+    }
+
+    private void checkFinished() {
+        if (isWalkFinished && numPendingFiles.get() == 0) {
+            finishedAt.compareAndSet(0, System.nanoTime());
+        }
+    }
+
+    private static boolean isRelevant(Path file, Set<FrameworkType> relevantTypes) {
+        for (FrameworkType frameworkType : EndpointWatcher.getFrameworksForFile(file)) {
+            if (relevantTypes.contains(frameworkType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
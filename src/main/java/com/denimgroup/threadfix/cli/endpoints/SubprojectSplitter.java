@@ -0,0 +1,288 @@
+////////////////////////////////////////////////////////////////////////
+//
+//     Copyright (C) 2018 Applied Visions - http://securedecisions.com
+//
+//     The contents of this file are subject to the Mozilla Public License
+//     Version 2.0 (the "License"); you may not use this file except in
+//     compliance with the License. You may obtain a copy of the License at
+//     http://www.mozilla.org/MPL/
+//
+//     Software distributed under the License is distributed on an "AS IS"
+//     basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+//     License for the specific language governing rights and limitations
+//     under the License.
+//
+//     This material is based on research sponsored by the Department of Homeland
+//     Security (DHS) Science and Technology Directorate, Cyber Security Division
+//     (DHS S&T/CSD) via contract number HHSP233201600058C.
+//
+//     Contributor(s):
+//              Secure Decisions, a division of Applied Visions, Inc
+//
+////////////////////////////////////////////////////////////////////////
+
+
+package com.denimgroup.threadfix.cli.endpoints;
+
+import com.denimgroup.threadfix.data.enums.FrameworkType;
+import com.denimgroup.threadfix.data.interfaces.Endpoint;
+import com.denimgroup.threadfix.framework.engine.full.EndpointSerialization;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.denimgroup.threadfix.CollectionUtils.list;
+
+//  Splits a repository that holds several independent projects, ie a monorepo of services that each have their
+//  own pom.xml, .csproj or manage.py, into those sub-projects, and scans each one on its own with only the
+//  frameworks detected in it. Sub-projects are recognized the same way as by -discover.
+//  Neither HAM nor the framework detectors are documented to be safe to call from several threads, so each
+//  sub-project is parsed in a worker process, as with -workers, with up to the given number running at once.
+//  File paths in the results are made relative to the repository root again, as if it had been scanned whole.
+public class SubprojectSplitter {
+
+    private final int numThreads;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    //  A worker that has finished a sub-project takes the next one. All of them are stopped when the scan ends or
+    //  is interrupted, which also ends any parse that is still running.
+    private final BlockingQueue<WorkerPool.WorkerProcess> idleWorkers = new LinkedBlockingQueue<>();
+    private final List<WorkerPool.WorkerProcess> startedWorkers = list();
+    private List<String> workerArgs;
+
+    //  Printed by the scanning thread, so that the messages of the sub-projects aren't interleaved and are dropped
+    //  with the rest of the job's output if it times out
+    private static class SubRootResult {
+        List<Endpoint> endpoints = list();
+        List<String> messages = list();
+    }
+
+    public SubprojectSplitter(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    //  The outermost project roots below the given folder, not counting the folder itself, in path order. The files
+    //  that aren't in any of them, ie the sources of a parent module, are added to filesOutside.
+    static List<File> findSubRoots(File root, List<File> filesOutside) {
+        List<File> subRoots = list();
+        Deque<File> directories = new ArrayDeque<>();
+        File[] rootChildren = root.listFiles();
+        addFiles(rootChildren, filesOutside);
+        addSubdirectories(root, rootChildren, directories);
+
+        while (!directories.isEmpty()) {
+            File directory = directories.pop();
+            File[] children = directory.listFiles();
+            if (children == null) {
+                continue;
+            }
+
+            if (ProjectDiscovery.isProjectRoot(directory, children)) {
+                subRoots.add(directory);
+            } else {
+                addFiles(children, filesOutside);
+                addSubdirectories(directory, children, directories);
+            }
+        }
+
+        Collections.sort(subRoots);
+        Collections.sort(filesOutside);
+        return subRoots;
+    }
+
+    private static void addFiles(File[] children, List<File> files) {
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isFile()) {
+                files.add(child);
+            }
+        }
+    }
+
+    private static void addSubdirectories(File directory, File[] children, Deque<File> directories) {
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory() && !ProjectDiscovery.PRUNED_DIRECTORIES.contains(child.getName()) &&
+                !Files.isSymbolicLink(child.toPath())) {
+                directories.push(child);
+            }
+        }
+    }
+
+    //  Scans each sub-project with the framework types detected in it, or the given types if none are detected.
+    //  Endpoints are returned in the order of the sub-projects. If the calling thread is interrupted,
+    //  ie by -project-timeout, the remaining scans are cancelled and the endpoints found so far are returned.
+    public List<Endpoint> scan(File root, List<File> subRoots, Collection<FrameworkType> frameworkTypes) {
+        //  The sub-projects are single projects, and the whole repository is validated once its results are merged
+        workerArgs = list();
+        for (String arg : EndpointMain.getWorkerArguments()) {
+            if (!arg.startsWith("-split-subprojects") && !arg.startsWith("-validate")) {
+                workerArgs.add(arg);
+            }
+        }
+
+        final AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, subRoots.size()), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "subproject-scan-" + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        List<Endpoint> endpoints = list();
+        try {
+            //  Frameworks are detected on this thread, which only walks the files, while the sub-projects that
+            //  have already been detected are parsed by the workers
+            List<Future<SubRootResult>> results = list();
+            for (final File subRoot : subRoots) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+                final String relativePath = getRelativePath(root, subRoot);
+                List<FrameworkType> detectedFrameworkTypes = EndpointMain.detectFrameworks(subRoot);
+                final List<FrameworkType> subRootFrameworkTypes = detectedFrameworkTypes.isEmpty() ?
+                    new ArrayList<>(frameworkTypes) : detectedFrameworkTypes;
+                results.add(executor.submit(new Callable<SubRootResult>() {
+                    @Override
+                    public SubRootResult call() throws IOException {
+                        return scanSubRoot(subRoot, relativePath, subRootFrameworkTypes);
+                    }
+                }));
+            }
+
+            for (int i = 0; i < subRoots.size(); i++) {
+                try {
+                    SubRootResult result = results.get(i).get();
+                    for (String message : result.messages) {
+                        EndpointMain.println(message);
+                    }
+                    endpoints.addAll(result.endpoints);
+                } catch (ExecutionException e) {
+                    //  One sub-project failing doesn't lose the endpoints of the others
+                    EndpointMain.println("Unable to scan sub-project '" + getRelativePath(root, subRoots.get(i)) + "': " + e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+            synchronized (startedWorkers) {
+                for (WorkerPool.WorkerProcess worker : startedWorkers) {
+                    worker.destroy();
+                }
+            }
+        }
+
+        return endpoints;
+    }
+
+    private SubRootResult scanSubRoot(File subRoot, String relativePath, List<FrameworkType> frameworkTypes) throws IOException {
+        SubRootResult result = new SubRootResult();
+        result.messages.add("Scanning sub-project '" + relativePath + "' with framework types " + frameworkTypes);
+
+        EndpointJob job = new EndpointJob();
+        job.sourceCodePath = subRoot;
+        job.frameworkTypes = frameworkTypes;
+
+        WorkerPool.WorkerProcess worker = idleWorkers.poll();
+        if (worker == null) {
+            worker = new WorkerPool.WorkerProcess(EndpointMain.workerHeapSize, workerArgs);
+            synchronized (startedWorkers) {
+                startedWorkers.add(worker);
+            }
+        }
+
+        WorkerPool.WorkerResponse response = worker.run(job, false);
+        if (response == null || response.timedOut) {
+            //  Died, or is still parsing after its timeout
+            worker.destroy();
+        } else {
+            idleWorkers.add(worker);
+        }
+
+        if (response == null) {
+            throw new IOException("the worker process died");
+        } else if (response.error != null) {
+            throw new IOException(response.error);
+        } else if (response.timedOut) {
+            result.messages.add("Sub-project '" + relativePath + "' timed out (phases: " + response.phaseTimings + ")");
+        } else {
+            result.endpoints = toParentPaths(response.endpoints, subRoot, relativePath);
+        }
+        return result;
+    }
+
+    //  Endpoints don't have a setter for their file path, so they are rewritten in the serialized form they come
+    //  back from the worker in, which also covers the file paths of their variants
+    private List<Endpoint> toParentPaths(String serializedEndpoints, File subRoot, String relativePath) throws IOException {
+        JsonNode tree = mapper.readTree(serializedEndpoints);
+        if (tree == null || tree.size() == 0) {
+            return list();
+        }
+
+        List<JsonNode> nodes = list();
+        nodes.add(tree);
+        while (!nodes.isEmpty()) {
+            JsonNode node = nodes.remove(nodes.size() - 1);
+            JsonNode filePath = node.get("filePath");
+            if (node.isObject() && filePath != null && filePath.isTextual()) {
+                ((ObjectNode)node).put("filePath", toParentPath(filePath.textValue(), subRoot, relativePath));
+            }
+            for (JsonNode child : node) {
+                if (child.isContainerNode()) {
+                    nodes.add(child);
+                }
+            }
+        }
+
+        List<Endpoint> result = list();
+        Collections.addAll(result, EndpointSerialization.deserializeAll(mapper.writeValueAsString(tree)));
+        return result;
+    }
+
+    //  Paths relative to the sub-project get its path prefixed. Absolute paths, library paths and missing paths
+    //  are already the same for the whole repository.
+    static String toParentPath(String filePath, File subRoot, String relativePath) {
+        String normalizedPath = filePath.replace('\\', '/');
+        String subRootPath = subRoot.getAbsolutePath().replace('\\', '/');
+        if (filePath.isEmpty() || filePath.contains("(lib)") || normalizedPath.equals(subRootPath) ||
+            normalizedPath.startsWith(subRootPath + "/")) {
+            return filePath;
+        }
+
+        char separator = filePath.indexOf('\\') >= 0 ? '\\' : '/';
+        String prefix = relativePath.replace('/', separator);
+        if (filePath.charAt(0) == separator) {
+            //  HAM gives paths relative to the scanned folder with a leading separator, which on Unix makes them
+            //  absolute too. They are only taken as relative when they name a file in the sub-project, so that
+            //  absolute paths outside of it, ie in a temporary extraction folder, are kept as they are
+            if (!new File(filePath).isAbsolute() || new File(subRoot, filePath).exists()) {
+                return separator + prefix + filePath;
+            }
+            return filePath;
+        }
+
+        //  ie C:\ paths on Windows
+        if (new File(filePath).isAbsolute()) {
+            return filePath;
+        }
+        return prefix + separator + filePath;
+    }
+
+    private static String getRelativePath(File root, File subRoot) {
+        return root.getAbsoluteFile().toPath().relativize(subRoot.getAbsoluteFile().toPath()).toString().replace('\\', '/');
+    }
+}
@@ -0,0 +1,464 @@
+////////////////////////////////////////////////////////////////////////
+//
+//     Copyright (C) 2018 Applied Visions - http://securedecisions.com
+//
+//     The contents of this file are subject to the Mozilla Public License
+//     Version 2.0 (the "License"); you may not use this file except in
+//     compliance with the License. You may obtain a copy of the License at
+//     http://www.mozilla.org/MPL/
+//
+//     Software distributed under the License is distributed on an "AS IS"
+//     basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+//     License for the specific language governing rights and limitations
+//     under the License.
+//
+//     This material is based on research sponsored by the Department of Homeland
+//     Security (DHS) Science and Technology Directorate, Cyber Security Division
+//     (DHS S&T/CSD) via contract number HHSP233201600058C.
+//
+//     Contributor(s):
+//              Secure Decisions, a division of Applied Visions, Inc
+//
+////////////////////////////////////////////////////////////////////////
+
+package com.denimgroup.threadfix.cli.endpoints;
+
+import com.denimgroup.threadfix.data.enums.FrameworkType;
+import com.denimgroup.threadfix.data.interfaces.Endpoint;
+import com.denimgroup.threadfix.framework.engine.full.EndpointSerialization;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.denimgroup.threadfix.CollectionUtils.list;
+import static com.denimgroup.threadfix.CollectionUtils.map;
+
+//  Runs endpoint detection jobs in separate worker JVMs, so that a project which exhausts the heap or leaks
+//  threads only takes down its own worker. Jobs and results are exchanged as single-line JSON messages over
+//  the workers' stdin and stdout. When a worker dies, it is restarted and its job is retried once in a worker
+//  with twice the heap. Results are added to the output and the journal in the order the jobs were submitted,
+//  so that they don't depend on which worker finishes first.
+public class WorkerPool {
+
+    //  Marks protocol lines on the worker's stdout, so that any other output (ie from logging) can be told apart
+    static final String MESSAGE_PREFIX = "@@ASD-WORKER@@ ";
+
+    public static class WorkerRequest {
+        public String sourceCodePath;
+        public List<String> frameworkTypes = list();
+        public List<String> includes = list();
+        public List<String> excludes = list();
+        public boolean measureSize;
+    }
+
+    public static class WorkerResponse {
+        public String endpoints;
+        public String error;
+        public boolean timedOut;
+        public String phaseTimings;
+        public long peakHeapBytes = -1;
+        public JobCounters counters = new JobCounters();
+        //  Null if the worker didn't measure the job
+        public ProjectSizeEstimator.ProjectSize size;
+        public boolean reused;
+    }
+
+    private static final EndpointJob END_OF_JOBS = new EndpointJob();
+
+    //  With -project-timeout, a worker that hasn't responded this long after the timeout is hung outside of
+    //  detection, or in a parser that also blocks its own timeout, and is killed
+    private static final int WORKER_GRACE_SECONDS = 60;
+
+    private static final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "worker-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final int numWorkers;
+    private final String heapSize;
+    private final List<String> workerArgs;
+    private final BlockingQueue<EndpointJob> pendingJobs = new LinkedBlockingQueue<>();
+    private final List<Thread> workerThreads = list();
+
+    //  Jobs are numbered as they are submitted, and their results are held back until those of all earlier jobs
+    //  have been stored
+    private final Map<EndpointJob, Long> sequenceNumbers = new IdentityHashMap<>();
+    private final Map<Long, Runnable> pendingResults = map();
+    private long numSubmitted = 0;
+    private long numStored = 0;
+
+    public WorkerPool(int numWorkers, String heapSize, List<String> workerArgs) {
+        this.numWorkers = numWorkers;
+        this.heapSize = heapSize;
+        this.workerArgs = workerArgs;
+    }
+
+    public void start() {
+        for (int i = 0; i < numWorkers; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runJobs();
+                }
+            }, "worker-supervisor-" + i);
+            workerThreads.add(thread);
+            thread.start();
+        }
+    }
+
+    public void submit(EndpointJob job) {
+        synchronized (this) {
+            sequenceNumbers.put(job, numSubmitted++);
+        }
+        pendingJobs.add(job);
+    }
+
+    //  For a job that doesn't need a worker, ie one restored from -journal, whose result is stored in its turn
+    public void submitCompleted(EndpointJob job, Runnable storeResult) {
+        synchronized (this) {
+            sequenceNumbers.put(job, numSubmitted++);
+        }
+        storeInOrder(job, storeResult);
+    }
+
+    private synchronized void storeInOrder(EndpointJob job, Runnable storeResult) {
+        pendingResults.put(sequenceNumbers.remove(job), storeResult);
+        while (pendingResults.containsKey(numStored)) {
+            Runnable next = pendingResults.remove(numStored);
+            numStored++;
+            next.run();
+        }
+    }
+
+    //  Waits for all submitted jobs to complete and stops the workers
+    public void finish() throws InterruptedException {
+        for (int i = 0; i < numWorkers; i++) {
+            pendingJobs.add(END_OF_JOBS);
+        }
+        for (Thread thread : workerThreads) {
+            thread.join();
+        }
+        //  Only left over if a worker thread died without recording its job, in which case the rest are still stored
+        synchronized (this) {
+            List<Long> leftOver = new ArrayList<>(pendingResults.keySet());
+            Collections.sort(leftOver);
+            for (Long sequenceNumber : leftOver) {
+                pendingResults.remove(sequenceNumber).run();
+            }
+        }
+    }
+
+    private void runJobs() {
+        WorkerProcess worker = null;
+        try {
+            while (true) {
+                EndpointJob job = pendingJobs.take();
+                if (job == END_OF_JOBS) {
+                    break;
+                }
+
+                //  Times the job as seen from here, including any retry, for -job-stats
+                job.timing.start();
+                EndpointMain.reportJobStarted(job);
+                try {
+                    if (worker == null) {
+                        worker = new WorkerProcess(heapSize, workerArgs);
+                    }
+
+                    WorkerResponse response = worker.run(job, EndpointMain.measureJobSizes && job.size == null);
+                    if (response == null) {
+                        worker.destroy();
+                        worker = null;
+
+                        String retryHeapSize = doubleHeapSize(heapSize);
+                        System.err.println("Worker crashed while scanning '" + job.sourceCodePath.getAbsolutePath() + "', retrying with -Xmx" + retryHeapSize);
+
+                        WorkerProcess retryWorker = new WorkerProcess(retryHeapSize, workerArgs);
+                        try {
+                            response = retryWorker.run(job, EndpointMain.measureJobSizes && job.size == null);
+                        } finally {
+                            retryWorker.destroy();
+                        }
+
+                        if (response == null) {
+                            job.timing.finish();
+                            recordFailure(job, "worker crashed twice, the second time with -Xmx" + retryHeapSize, new JobCounters());
+                            continue;
+                        }
+                    }
+
+                    job.timing.finish();
+                    applyResponse(job, response);
+
+                    //  The timed out detection may still be running in the worker, so it is replaced rather than reused
+                    if (response.timedOut && worker != null) {
+                        worker.destroy();
+                        worker = null;
+                    }
+                } catch (IOException | RuntimeException e) {
+                    //  A worker that couldn't be started or a response that couldn't be read only fails this job,
+                    //  so that the supervisor keeps taking the rest of the queue. Every job has to be recorded,
+                    //  as the results of later jobs are held back until it is
+                    e.printStackTrace();
+                    job.timing.finish();
+                    recordFailure(job, "worker process error: " + e, new JobCounters());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (worker != null) {
+                worker.destroy();
+            }
+        }
+    }
+
+    private void applyResponse(EndpointJob job, WorkerResponse response) throws IOException {
+        //  Read first, so that nothing is added to the totals for a response that can't be read
+        List<Endpoint> endpoints = list();
+        if (response.error == null && !response.timedOut) {
+            Collections.addAll(endpoints, EndpointSerialization.deserializeAll(response.endpoints));
+        }
+
+        response.counters.addToTotals();
+        job.peakHeapBytes = response.peakHeapBytes;
+        if (response.size != null) {
+            job.size = response.size;
+        }
+        job.isReused = response.reused;
+
+        if (response.error != null) {
+            recordFailure(job, response.error, response.counters);
+        } else if (response.timedOut) {
+            recordTimeout(job, response.phaseTimings, response.counters);
+        } else {
+            recordResult(job, endpoints, response.counters);
+        }
+    }
+
+    //  Progress and job times are reported as soon as a job finishes, while its result waits for its turn
+    private void recordResult(final EndpointJob job, final List<Endpoint> endpoints, final JobCounters counters) {
+        EndpointMain.reportJobFinished(job, endpoints.size(), false);
+        storeInOrder(job, new Runnable() {
+            @Override
+            public void run() {
+                EndpointMain.storeResult(job, endpoints, counters);
+            }
+        });
+    }
+
+    private void recordTimeout(final EndpointJob job, final String phaseTimings, final JobCounters counters) {
+        EndpointMain.reportJobFinished(job, 0, true);
+        storeInOrder(job, new Runnable() {
+            @Override
+            public void run() {
+                EndpointMain.storeTimeout(job, phaseTimings, counters);
+            }
+        });
+    }
+
+    private void recordFailure(final EndpointJob job, final String reason, final JobCounters counters) {
+        EndpointMain.reportJobFinished(job, 0, true);
+        storeInOrder(job, new Runnable() {
+            @Override
+            public void run() {
+                EndpointMain.storeFailure(job, reason, counters);
+            }
+        });
+    }
+
+    static String doubleHeapSize(String heapSize) {
+        Matcher matcher = Pattern.compile("(\\d+)([kKmMgG]?)").matcher(heapSize);
+        if (!matcher.matches()) {
+            return heapSize;
+        }
+        return (Long.parseLong(matcher.group(1)) * 2) + matcher.group(2);
+    }
+
+    //  Also used by SubprojectSplitter, to parse each sub-project in its own process
+    static class WorkerProcess {
+        private final Process process;
+        private final BufferedWriter toWorker;
+        private final BufferedReader fromWorker;
+        private final ObjectMapper mapper = new ObjectMapper();
+
+        WorkerProcess(String heapSize, List<String> workerArgs) throws IOException {
+            List<String> command = list();
+            command.add(new File(System.getProperty("java.home"), "bin" + File.separator + "java").getAbsolutePath());
+            command.add("-Xmx" + heapSize);
+            command.add("-XX:+ExitOnOutOfMemoryError");
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(EndpointMain.class.getName());
+            command.addAll(workerArgs);
+
+            ProcessBuilder builder = new ProcessBuilder(command);
+            builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+            process = builder.start();
+
+            toWorker = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+            fromWorker = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        }
+
+        //  Returns null if the worker died before responding, and a timed out response if it had to be killed
+        WorkerResponse run(EndpointJob job, boolean measureSize) {
+            WorkerRequest request = new WorkerRequest();
+            request.sourceCodePath = job.sourceCodePath.getAbsolutePath();
+            for (FrameworkType frameworkType : job.frameworkTypes) {
+                request.frameworkTypes.add(frameworkType.name());
+            }
+            if (job.sourceFilter != null) {
+                request.includes.addAll(job.sourceFilter.includes);
+                request.excludes.addAll(job.sourceFilter.excludes);
+            }
+            //  Workers aren't passed -job-stats, so each request says whether the job still needs measuring
+            request.measureSize = measureSize;
+
+            final AtomicBoolean isKilled = new AtomicBoolean(false);
+            ScheduledFuture<?> deadline = null;
+            if (EndpointMain.projectTimeoutSeconds > 0) {
+                deadline = watchdog.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        isKilled.set(true);
+                        process.destroyForcibly();
+                    }
+                }, EndpointMain.projectTimeoutSeconds + WORKER_GRACE_SECONDS, TimeUnit.SECONDS);
+            }
+
+            try {
+                toWorker.write(mapper.writeValueAsString(request));
+                toWorker.newLine();
+                toWorker.flush();
+
+                String line;
+                while ((line = fromWorker.readLine()) != null) {
+                    if (line.startsWith(MESSAGE_PREFIX)) {
+                        return mapper.readValue(line.substring(MESSAGE_PREFIX.length()), WorkerResponse.class);
+                    }
+                    System.err.println(line);
+                }
+            } catch (IOException e) {
+                //  Broken pipe, the worker is gone
+            } finally {
+                if (deadline != null) {
+                    deadline.cancel(false);
+                }
+            }
+
+            if (isKilled.get()) {
+                //  Not retried like a crash, since a second worker would hang the same way
+                WorkerResponse response = new WorkerResponse();
+                response.timedOut = true;
+                response.phaseTimings = "worker killed after no response within " +
+                        (EndpointMain.projectTimeoutSeconds + WORKER_GRACE_SECONDS) + "s";
+                return response;
+            }
+            return null;
+        }
+
+        void destroy() {
+            try {
+                toWorker.close();
+            } catch (IOException e) {
+                //  Already closed
+            }
+            process.destroy();
+        }
+    }
+
+    //  Entry point for worker processes, started with the -worker flag. Reads one request per line from stdin
+    //  until it is closed, and writes one response per request to stdout.
+    static void runWorker() {
+        PrintStream protocolOut = System.out;
+        //  Everything else that would be printed to stdout goes to stderr, which the supervisor passes through
+        System.setOut(System.err);
+        EndpointMain.output.flush();
+        EndpointMain.output = new AsyncOutputSink(System.err);
+
+        ObjectMapper mapper = new ObjectMapper();
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+
+                WorkerRequest request = mapper.readValue(line, WorkerRequest.class);
+                EndpointJob job = new EndpointJob();
+                job.sourceCodePath = new File(request.sourceCodePath);
+                job.frameworkTypes = list();
+                for (String frameworkType : request.frameworkTypes) {
+                    job.frameworkTypes.add(FrameworkType.valueOf(frameworkType));
+                }
+                if (!request.includes.isEmpty() || !request.excludes.isEmpty()) {
+                    job.sourceFilter = new SourceFilter();
+                    job.sourceFilter.includes.addAll(request.includes);
+                    job.sourceFilter.excludes.addAll(request.excludes);
+                }
+                EndpointMain.measureJobSizes = request.measureSize;
+
+                WorkerResponse response = runJob(job);
+
+                protocolOut.println(MESSAGE_PREFIX + mapper.writeValueAsString(response));
+                protocolOut.flush();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static WorkerResponse runJob(EndpointJob job) {
+        WorkerResponse response = new WorkerResponse();
+
+        EndpointMain.println("Beginning endpoint detection for '" + job.sourceCodePath.getAbsolutePath() + "' in worker process");
+        PerfBaseline.resetPeakHeap();
+        job.timing.start();
+        try {
+            List<Endpoint> endpoints = EndpointMain.projectTimeoutSeconds > 0 ?
+                EndpointMain.detectEndpointsWithTimeout(job) :
+                EndpointMain.detectEndpoints(job);
+
+            if (endpoints == null) {
+                response.timedOut = true;
+            } else {
+                response.endpoints = EndpointSerialization.serializeAll(endpoints);
+                response.counters = job.counters;
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            response.error = e.toString();
+        }
+        job.timing.finish();
+        response.peakHeapBytes = PerfBaseline.getPeakHeapBytes();
+        response.size = job.size;
+        response.reused = job.isReused;
+        EndpointMain.println("Finished endpoint detection for '" + job.sourceCodePath.getAbsolutePath() + "'");
+        EndpointMain.println(EndpointMain.PRINTLN_SEPARATOR);
+
+        response.phaseTimings = job.timing.toString();
+
+        return response;
+    }
+}